@@ -0,0 +1,60 @@
+package com.palominolabs.http.url;
+
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import com.google.common.base.Strings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Shows how parallel encoding and decoding of multi-megabyte inputs scales with the number of cores used. A
+ * parallelism of 1 encodes and decodes on the calling thread.
+ */
+public class ParallelPercentCodingBenchmark {
+
+    static final String HUGE_STRING_MIX = Strings.repeat(PercentEncoderBenchmark.SMALL_STRING_MIX, 100_000);
+    static final String HUGE_STRING_ENCODED;
+
+    static {
+        try {
+            HUGE_STRING_ENCODED = UrlPercentEncoders.getUnstructuredQueryEncoder().encode(HUGE_STRING_MIX);
+        } catch (CharacterCodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PoolState {
+        @Param({"1", "2", "4", "8"})
+        int parallelism;
+
+        ForkJoinPool pool;
+        PercentEncoder encoder = UrlPercentEncoders.getUnstructuredQueryEncoder();
+        PercentDecoder decoder = new PercentDecoder(StandardCharsets.UTF_8.newDecoder());
+
+        @Setup
+        public void setUp() {
+            pool = new ForkJoinPool(parallelism);
+        }
+
+        @TearDown
+        public void tearDown() {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public String testEncodeParallelHugeMix(PoolState state) throws CharacterCodingException {
+        return state.encoder.encodeParallel(HUGE_STRING_MIX, state.pool);
+    }
+
+    @Benchmark
+    public String testDecodeParallelHugeMix(PoolState state) throws CharacterCodingException {
+        return state.decoder.decodeParallel(HUGE_STRING_ENCODED, state.pool);
+    }
+}
@@ -1,11 +1,14 @@
 package com.palominolabs.http.url;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.StandardCharsets;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.State;
 
+import static com.palominolabs.http.url.PercentEncoderBenchmark.HUGE_STRING_MOSTLY_SAFE;
+import static com.palominolabs.http.url.PercentEncoderBenchmark.LARGE_STRING_ALL_SAFE;
 import static com.palominolabs.http.url.PercentEncoderBenchmark.LARGE_STRING_MIX;
 import static com.palominolabs.http.url.PercentEncoderBenchmark.SMALL_STRING_MIX;
 
@@ -13,6 +16,15 @@ public class PercentDecoderBenchmark {
 
     static final String SMALL_STRING_ENCODED;
     static final String LARGE_STRING_ENCODED;
+    static final String HUGE_STRING_MOSTLY_SAFE_ENCODED;
+    static final String SMALL_STRING_FORM_ENCODED;
+    static final String LARGE_STRING_FORM_ENCODED;
+    static final byte[] LARGE_BYTES_ENCODED;
+    static final SafeCharSet QUERY_SAFE_CHARS = UrlPercentEncoders.getUnstructuredQueryEncoder().getSafeChars();
+    /**
+     * The sort of invalid %-sequences that scanners send
+     */
+    static final String SMALL_STRING_GARBAGE = "/scripts/..%c0%af../winnt/system32/cmd.exe?/c+dir+%zz%%ff%u002e%2";
 
     static {
         PercentEncoder encoder = UrlPercentEncoders.getUnstructuredQueryEncoder();
@@ -26,11 +38,35 @@ public class PercentDecoderBenchmark {
         } catch (CharacterCodingException e) {
             throw new RuntimeException(e);
         }
+        try {
+            HUGE_STRING_MOSTLY_SAFE_ENCODED = encoder.encode(HUGE_STRING_MOSTLY_SAFE);
+        } catch (CharacterCodingException e) {
+            throw new RuntimeException(e);
+        }
+
+        LARGE_BYTES_ENCODED = LARGE_STRING_ENCODED.getBytes(StandardCharsets.US_ASCII);
+
+        PercentEncoder formEncoder = UrlPercentEncoders.getFormEncoder();
+        try {
+            SMALL_STRING_FORM_ENCODED = formEncoder.encode(SMALL_STRING_MIX);
+        } catch (CharacterCodingException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            LARGE_STRING_FORM_ENCODED = formEncoder.encode(LARGE_STRING_MIX);
+        } catch (CharacterCodingException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @State(Scope.Thread)
     public static class ThreadState {
         PercentDecoder decoder = new PercentDecoder(StandardCharsets.UTF_8.newDecoder());
+        PercentDecoder formDecoder = new PercentDecoder(StandardCharsets.UTF_8.newDecoder(), true);
+        PercentDecoder isoDecoder = new PercentDecoder(StandardCharsets.ISO_8859_1.newDecoder());
+        ByteBuffer largeDirectBuffer = (ByteBuffer) ByteBuffer.allocateDirect(LARGE_BYTES_ENCODED.length)
+            .put(LARGE_BYTES_ENCODED)
+            .flip();
     }
 
     @Benchmark
@@ -42,4 +78,59 @@ public class PercentDecoderBenchmark {
     public String testPercentDecodeLarge(ThreadState state) throws CharacterCodingException {
         return state.decoder.decode(LARGE_STRING_ENCODED);
     }
+
+    @Benchmark
+    public String testPercentDecodeLargeBytes(ThreadState state) throws CharacterCodingException {
+        return state.decoder.decode(LARGE_BYTES_ENCODED, 0, LARGE_BYTES_ENCODED.length);
+    }
+
+    @Benchmark
+    public String testPercentDecodeLargeDirectBuffer(ThreadState state) throws CharacterCodingException {
+        return state.decoder.decode(state.largeDirectBuffer.duplicate());
+    }
+
+    @Benchmark
+    public String testPercentDecodeLargeSafe(ThreadState state) throws CharacterCodingException {
+        return state.decoder.decode(LARGE_STRING_ALL_SAFE);
+    }
+
+    @Benchmark
+    public String testPercentDecodeHugeMostlySafe(ThreadState state) throws CharacterCodingException {
+        return state.decoder.decode(HUGE_STRING_MOSTLY_SAFE_ENCODED);
+    }
+
+    @Benchmark
+    public String testPercentDecodeLargeIso88591(ThreadState state) throws CharacterCodingException {
+        // the mix is all ASCII, so its UTF-8 encoding is also valid ISO-8859-1
+        return state.isoDecoder.decode(LARGE_STRING_ENCODED);
+    }
+
+    @Benchmark
+    public String testFormDecodeSmall(ThreadState state) throws CharacterCodingException {
+        return state.formDecoder.decode(SMALL_STRING_FORM_ENCODED);
+    }
+
+    @Benchmark
+    public String testFormDecodeLarge(ThreadState state) throws CharacterCodingException {
+        return state.formDecoder.decode(LARGE_STRING_FORM_ENCODED);
+    }
+
+    @Benchmark
+    public Object testPercentDecodeGarbageThrowing(ThreadState state) throws CharacterCodingException {
+        try {
+            return state.decoder.decode(SMALL_STRING_GARBAGE);
+        } catch (IllegalArgumentException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public String testPercentDecodeGarbageLenient(ThreadState state) throws CharacterCodingException {
+        return state.decoder.decodeLenient(SMALL_STRING_GARBAGE);
+    }
+
+    @Benchmark
+    public int testValidateLarge(ThreadState state) {
+        return state.decoder.validate(LARGE_STRING_ENCODED, QUERY_SAFE_CHARS);
+    }
 }
@@ -6,6 +6,7 @@ import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.State;
 
 import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 
 public class PercentEncoderBenchmark {
 
@@ -20,18 +21,31 @@ public class PercentEncoderBenchmark {
     static final String LARGE_STRING_MIX;
     static final String LARGE_STRING_ALL_SAFE;
     static final String LARGE_STRING_ALL_UNSAFE;
+    // ~1M chars, with an escaped char every 48 chars
+    static final String HUGE_STRING_MOSTLY_SAFE;
 
     static {
         LARGE_STRING_MIX = Strings.repeat(SMALL_STRING_MIX, 1000);
         LARGE_STRING_ALL_SAFE = Strings.repeat(SMALL_STRING_ALL_SAFE, 1000);
         LARGE_STRING_ALL_UNSAFE = Strings.repeat(SMALL_STRING_ALL_UNSAFE, 1000);
+        HUGE_STRING_MOSTLY_SAFE = Strings.repeat(SMALL_STRING_ALL_SAFE + " ", 20_000);
     }
 
     @State(Scope.Thread)
     public static class ThreadState {
         PercentEncoder encoder = UrlPercentEncoders.getUnstructuredQueryEncoder();
+        PercentEncoder formEncoder = UrlPercentEncoders.getFormEncoder();
+        PercentEncoder isoEncoder = new PercentEncoder(UrlPercentEncoders.getUnstructuredQueryEncoder().getSafeChars(),
+            StandardCharsets.ISO_8859_1.newEncoder());
         PercentEncoderOutputHandler noOpHandler = new NoOpOutputHandler();
         AccumXorOutputHandler accumXorHandler = new AccumXorOutputHandler();
+        PercentDecoder decoder = new PercentDecoder(StandardCharsets.UTF_8.newDecoder());
+    }
+
+    @State(Scope.Benchmark)
+    public static class CacheState {
+        CachingPercentEncoder encoder = new CachingPercentEncoder(UrlPercentEncoders.getUnstructuredQueryEncoder(),
+            1024, 64);
     }
 
     @Benchmark
@@ -39,6 +53,16 @@ public class PercentEncoderBenchmark {
         return state.encoder.encode(TINY_STRING_MIX);
     }
 
+    @Benchmark
+    public String testCachedEncodeTinyMix(CacheState state) throws CharacterCodingException {
+        return state.encoder.encode(TINY_STRING_MIX);
+    }
+
+    @Benchmark
+    public String testCachedEncodeSmallMix(CacheState state) throws CharacterCodingException {
+        return state.encoder.encode(SMALL_STRING_MIX);
+    }
+
     @Benchmark
     public String testPercentEncodeSmallMix(ThreadState state) throws CharacterCodingException {
         return state.encoder.encode(SMALL_STRING_MIX);
@@ -59,6 +83,26 @@ public class PercentEncoderBenchmark {
         return state.encoder.encode(LARGE_STRING_ALL_SAFE);
     }
 
+    @Benchmark
+    public String testPercentEncodeHugeMostlySafe(ThreadState state) throws CharacterCodingException {
+        return state.encoder.encode(HUGE_STRING_MOSTLY_SAFE);
+    }
+
+    @Benchmark
+    public String testFormEncodeSmallMix(ThreadState state) throws CharacterCodingException {
+        return state.formEncoder.encode(SMALL_STRING_MIX);
+    }
+
+    @Benchmark
+    public String testFormEncodeLargeMix(ThreadState state) throws CharacterCodingException {
+        return state.formEncoder.encode(LARGE_STRING_MIX);
+    }
+
+    @Benchmark
+    public String testPercentEncodeLargeMixIso88591(ThreadState state) throws CharacterCodingException {
+        return state.isoEncoder.encode(LARGE_STRING_MIX);
+    }
+
     @Benchmark
     public String testPercentEncodeSmallUnsafe(ThreadState state) throws CharacterCodingException {
         return state.encoder.encode(SMALL_STRING_ALL_UNSAFE);
@@ -91,6 +135,22 @@ public class PercentEncoderBenchmark {
         return state.accumXorHandler.c;
     }
 
+    @Benchmark
+    public boolean testIsEncodedLarge(ThreadState state) {
+        return state.encoder.isEncoded(PercentDecoderBenchmark.LARGE_STRING_ENCODED);
+    }
+
+    @Benchmark
+    public String testNormalizeLargeCanonical(ThreadState state) throws CharacterCodingException {
+        return state.encoder.normalize(PercentDecoderBenchmark.LARGE_STRING_ENCODED);
+    }
+
+    @Benchmark
+    public String testDecodeReencodeLarge(ThreadState state) throws CharacterCodingException {
+        // what normalize() replaces for input that is already canonical
+        return state.encoder.encode(state.decoder.decode(PercentDecoderBenchmark.LARGE_STRING_ENCODED));
+    }
+
     static class NoOpOutputHandler implements PercentEncoderOutputHandler {
 
         @Override
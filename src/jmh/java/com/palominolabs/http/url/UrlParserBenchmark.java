@@ -0,0 +1,53 @@
+package com.palominolabs.http.url;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.CharacterCodingException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+public class UrlParserBenchmark {
+
+    static final String URL_STRING =
+        "https://foo.bar.com:3333/foo/ba%20r;mtx1=val1;mtx2=val%202/seg%203;m2=v2?q1=v1&q2=v%202#zomg%20it's%20a%20frag";
+
+    static final URL MANY_QUERY_PARAMS_URL;
+
+    static {
+        StringBuilder buf = new StringBuilder("http://foo.com/search?flag");
+        for (int i = 0; i < 50; i++) {
+            buf.append("&q").append(i).append("=v%20").append(i);
+        }
+        try {
+            MANY_QUERY_PARAMS_URL = new URL(buf.toString());
+        } catch (MalformedURLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        UrlParser parser = new UrlParser();
+    }
+
+    @Benchmark
+    public UrlBuilder testFromUrl() throws CharacterCodingException, MalformedURLException {
+        return UrlBuilder.fromUrl(new URL(URL_STRING));
+    }
+
+    @Benchmark
+    public UrlBuilder testFromString() throws CharacterCodingException {
+        return UrlBuilder.fromString(URL_STRING);
+    }
+
+    @Benchmark
+    public UrlBuilder testParserParse(ThreadState state) throws CharacterCodingException {
+        return state.parser.parse(URL_STRING);
+    }
+
+    @Benchmark
+    public UrlBuilder testFromUrlManyQueryParams() throws CharacterCodingException {
+        return UrlBuilder.fromUrl(MANY_QUERY_PARAMS_URL);
+    }
+}
@@ -0,0 +1,41 @@
+package com.palominolabs.http.url;
+
+import java.nio.charset.CharacterCodingException;
+import org.openjdk.jmh.annotations.Benchmark;
+
+public class UrlTemplateBenchmark {
+
+    static final UrlTemplate TEMPLATE;
+
+    static {
+        try {
+            TEMPLATE = UrlTemplate.forHost("https", "api.example.com")
+                .pathSegment("v2")
+                .pathSegment("users")
+                .pathVariable("id")
+                .pathSegment("orders")
+                .queryVariable("page", "p")
+                .queryVariable("size", "s")
+                .build();
+        } catch (CharacterCodingException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Benchmark
+    public String testUrlBuilder() throws CharacterCodingException {
+        return UrlBuilder.forHost("https", "api.example.com")
+            .pathSegment("v2")
+            .pathSegment("users")
+            .pathSegment("12345")
+            .pathSegment("orders")
+            .queryParam("page", "3")
+            .queryParam("size", "50")
+            .toUrlString();
+    }
+
+    @Benchmark
+    public String testUrlTemplate() throws CharacterCodingException {
+        return TEMPLATE.expand("12345", "3", "50");
+    }
+}
@@ -0,0 +1,49 @@
+package com.palominolabs.http.url;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A PercentEncoderHandler implementation that appends to an {@link Appendable}.
+ *
+ * Since handler methods can't throw checked exceptions, any IOException from the Appendable is wrapped in an {@link
+ * UncheckedIOException}, which {@link PercentEncoder#encodeTo(CharSequence, Appendable)} unwraps.
+ */
+@NotThreadSafe
+final class AppendablePercentEncoderOutputHandler implements PercentEncoderOutputHandler {
+
+    private final Appendable appendable;
+
+    AppendablePercentEncoderOutputHandler(@Nonnull Appendable appendable) {
+        this.appendable = appendable;
+    }
+
+    @Override
+    public void onOutputChar(char c) {
+        try {
+            appendable.append(c);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void onOutputChars(@Nonnull CharSequence cs, int start, int end) {
+        try {
+            appendable.append(cs, start, end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void onOutputTriple(char highHexDigit, char lowHexDigit) {
+        try {
+            appendable.append('%').append(highHexDigit).append(lowHexDigit);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
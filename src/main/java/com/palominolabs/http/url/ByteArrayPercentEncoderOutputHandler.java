@@ -0,0 +1,119 @@
+package com.palominolabs.http.url;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A PercentEncoderHandler implementation that accumulates US-ASCII bytes in a growable array.
+ *
+ * Percent-encoded output is pure US-ASCII as long as the encoder's safe chars are all ASCII (which is the case for all
+ * the encoders in {@link UrlPercentEncoders}), so each output char is written as one byte without going through a
+ * charset.
+ */
+@NotThreadSafe
+public final class ByteArrayPercentEncoderOutputHandler implements PercentEncoderOutputHandler {
+
+    private byte[] buf;
+    private int count;
+
+    /**
+     * Create a new handler with a default size buffer.
+     */
+    public ByteArrayPercentEncoderOutputHandler() {
+        this(32);
+    }
+
+    /**
+     * @param initialCapacity initial size of the buffer
+     */
+    public ByteArrayPercentEncoderOutputHandler(int initialCapacity) {
+        buf = new byte[initialCapacity];
+    }
+
+    /**
+     * @return A copy of the bytes accumulated since the last call to reset()
+     */
+    @Nonnull
+    public byte[] getContents() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    /**
+     * @return A read-only view of the bytes accumulated since the last call to reset(). The view shares the handler's
+     * buffer, so it is only valid until the handler is next written to or reset.
+     */
+    @Nonnull
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the number of bytes accumulated since the last call to reset()
+     */
+    public int length() {
+        return count;
+    }
+
+    /**
+     * Clear the buffer.
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * Ensure the internal buffer has enough capacity for the specified length of input.
+     *
+     * @param length length to ensure capacity for
+     */
+    public void ensureCapacity(int length) {
+        if (length > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(length, buf.length * 2));
+        }
+    }
+
+    @Override
+    public void onOutputChar(char c) {
+        ensureCapacity(count + 1);
+        buf[count++] = toAsciiByte(c);
+    }
+
+    @Override
+    public void onOutputChars(@Nonnull CharSequence cs, int start, int end) {
+        ensureCapacity(count + end - start);
+        for (int i = start; i < end; i++) {
+            buf[count++] = toAsciiByte(cs.charAt(i));
+        }
+    }
+
+    @Override
+    public void onOutputChars(@Nonnull char[] chars, int offset, int length) {
+        ensureCapacity(count + length);
+        for (int i = offset; i < offset + length; i++) {
+            buf[count++] = toAsciiByte(chars[i]);
+        }
+    }
+
+    @Override
+    public void onOutputTriple(char highHexDigit, char lowHexDigit) {
+        ensureCapacity(count + 3);
+        buf[count++] = '%';
+        buf[count++] = (byte) highHexDigit;
+        buf[count++] = (byte) lowHexDigit;
+    }
+
+    /**
+     * @param c output char
+     * @return c as a US-ASCII byte
+     * @throws IllegalArgumentException if c is not US-ASCII, which only happens if the encoder's safe chars include
+     *                                  non-ASCII chars
+     */
+    static byte toAsciiByte(char c) {
+        if (c > 0x7F) {
+            throw new IllegalArgumentException("Output char \\u" + Integer.toHexString(c) + " is not US-ASCII");
+        }
+        return (byte) c;
+    }
+}
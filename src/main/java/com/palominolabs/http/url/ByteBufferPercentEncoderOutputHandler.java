@@ -0,0 +1,103 @@
+package com.palominolabs.http.url;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static com.palominolabs.http.url.ByteArrayPercentEncoderOutputHandler.toAsciiByte;
+
+/**
+ * A PercentEncoderHandler implementation that writes US-ASCII bytes into a caller-supplied ByteBuffer, which may be a
+ * heap or direct buffer. This allows encoded output to be written straight into e.g. a socket buffer.
+ *
+ * Bytes are written at the buffer's position, which is advanced accordingly. If the buffer runs out of room, a {@link
+ * BufferOverflowException} is thrown; see {@link PercentEncoder#encodedLength(CharSequence)} to size it up front.
+ */
+@NotThreadSafe
+public final class ByteBufferPercentEncoderOutputHandler implements PercentEncoderOutputHandler {
+
+    private ByteBuffer buffer;
+
+    /**
+     * @param buffer buffer to write to
+     */
+    public ByteBufferPercentEncoderOutputHandler(@Nonnull ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the buffer being written to
+     */
+    @Nonnull
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Write subsequent output to a different buffer. This allows a handler to be re-used across buffers.
+     *
+     * @param buffer buffer to write to
+     */
+    public void setBuffer(@Nonnull ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void onOutputChar(char c) {
+        buffer.put(toAsciiByte(c));
+    }
+
+    @Override
+    public void onOutputChars(@Nonnull CharSequence cs, int start, int end) {
+        if (buffer.remaining() < end - start) {
+            throw new BufferOverflowException();
+        }
+
+        if (buffer.hasArray()) {
+            // write straight into the backing array rather than one put() at a time
+            byte[] array = buffer.array();
+            int pos = buffer.arrayOffset() + buffer.position();
+            for (int i = start; i < end; i++) {
+                array[pos++] = toAsciiByte(cs.charAt(i));
+            }
+            buffer.position(pos - buffer.arrayOffset());
+            return;
+        }
+
+        for (int i = start; i < end; i++) {
+            buffer.put(toAsciiByte(cs.charAt(i)));
+        }
+    }
+
+    @Override
+    public void onOutputChars(@Nonnull char[] chars, int offset, int length) {
+        if (buffer.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int pos = buffer.arrayOffset() + buffer.position();
+            for (int i = offset; i < offset + length; i++) {
+                array[pos++] = toAsciiByte(chars[i]);
+            }
+            buffer.position(pos - buffer.arrayOffset());
+            return;
+        }
+
+        for (int i = offset; i < offset + length; i++) {
+            buffer.put(toAsciiByte(chars[i]));
+        }
+    }
+
+    @Override
+    public void onOutputTriple(char highHexDigit, char lowHexDigit) {
+        if (buffer.remaining() < 3) {
+            throw new BufferOverflowException();
+        }
+        buffer.put((byte) '%');
+        buffer.put((byte) highHexDigit);
+        buffer.put((byte) lowHexDigit);
+    }
+}
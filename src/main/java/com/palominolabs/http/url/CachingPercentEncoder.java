@@ -0,0 +1,200 @@
+package com.palominolabs.http.url;
+
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.UnmappableCharacterException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Wraps a PercentEncoder with a size-bounded cache of encoded values, so that encoding a value that is seen over and
+ * over (a path segment, a query param name, an enum-like value) costs a hash lookup rather than re-encoding it.
+ *
+ * Only String inputs no longer than the configured maximum length are cached; anything else is passed straight to the
+ * wrapped encoder. The cache is split into segments, each of which evicts its least recently used entry when full, so
+ * that threads using different values rarely contend on the same lock.
+ *
+ * Instances are thread safe.
+ */
+@ThreadSafe
+public final class CachingPercentEncoder {
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_SEGMENT_SIZE = 16;
+
+    private final PercentEncoder encoder;
+    private final int maxInputLength;
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param encoder        encoder to cache the output of
+     * @param maxSize        maximum number of encoded values to cache
+     * @param maxInputLength inputs longer than this are encoded without being cached
+     * @throws IllegalArgumentException if maxSize is less than 1 or maxInputLength is negative
+     */
+    public CachingPercentEncoder(@Nonnull PercentEncoder encoder, int maxSize, int maxInputLength) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Max size must be positive: " + maxSize);
+        }
+        if (maxInputLength < 0) {
+            throw new IllegalArgumentException("Max input length must not be negative: " + maxInputLength);
+        }
+
+        this.encoder = encoder;
+        this.maxInputLength = maxInputLength;
+
+        // a power of two, so a segment can be picked with a mask. Small caches use fewer segments so that each
+        // segment's LRU order covers a useful number of entries.
+        int segmentCount = Math.max(1, Math.min(MAX_SEGMENTS, Integer.highestOneBit(maxSize / MIN_SEGMENT_SIZE)));
+        // spread the remainder over the first segments so that the total capacity is exactly maxSize
+        int segmentSize = maxSize / segmentCount;
+        int largerSegments = maxSize % segmentCount;
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(i < largerSegments ? segmentSize + 1 : segmentSize);
+        }
+    }
+
+    /**
+     * @return the wrapped encoder
+     */
+    @Nonnull
+    public PercentEncoder getEncoder() {
+        return encoder;
+    }
+
+    /**
+     * Encode the input, using a cached result if there is one.
+     *
+     * @param input input string
+     * @return the same string that {@link PercentEncoder#encode(CharSequence)} would return for the input
+     * @throws MalformedInputException      if encoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if encoder is configured to report errors and an unmappable character is
+     *                                      detected
+     * @see PercentEncoder#encode(CharSequence)
+     */
+    @Nonnull
+    public String encode(@Nonnull CharSequence input) throws MalformedInputException, UnmappableCharacterException {
+        if (!(input instanceof String) || input.length() > maxInputLength) {
+            // other CharSequences may be mutable, so they can't be keys
+            return encoder.encode(input);
+        }
+
+        String key = (String) input;
+        Segment segment = segmentFor(key);
+        String encoded = segment.get(key);
+        if (encoded != null) {
+            hits.increment();
+            return encoded;
+        }
+
+        misses.increment();
+        // encode outside the lock; if another thread races to encode the same value, the results are equal anyway
+        encoded = encoder.encode(key);
+        segment.put(key, encoded);
+        return encoded;
+    }
+
+    /**
+     * Encode the input and append the resulting text to a StringBuilder, using a cached result if there is one.
+     *
+     * @param input  input string
+     * @param output StringBuilder to append the encoded input to
+     * @throws MalformedInputException      if encoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if encoder is configured to report errors and an unmappable character is
+     *                                      detected
+     * @see PercentEncoder#encodeTo(CharSequence, StringBuilder)
+     */
+    public void encodeTo(@Nonnull CharSequence input, @Nonnull StringBuilder output) throws MalformedInputException,
+        UnmappableCharacterException {
+        if (!(input instanceof String) || input.length() > maxInputLength) {
+            encoder.encodeTo(input, output);
+            return;
+        }
+
+        output.append(encode(input));
+    }
+
+    /**
+     * @return the number of encode calls that were answered from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of encode calls for cacheable input that wasn't in the cache. Input that is too long or not a
+     * String is not counted.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of encoded values currently cached
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Remove all cached values. Hit and miss counts are not reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        // spread the high bits down, since only the low bits pick the segment
+        return segments[(hash ^ hash >>> 16) & (segments.length - 1)];
+    }
+
+    /**
+     * One lock's worth of the cache: an access-ordered LinkedHashMap that drops its least recently used entry when
+     * full.
+     */
+    @ThreadSafe
+    private static final class Segment {
+
+        @GuardedBy("this")
+        private final LinkedHashMap<String, String> map;
+
+        Segment(int maxSize) {
+            map = new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        synchronized String get(String key) {
+            return map.get(key);
+        }
+
+        synchronized void put(String key, String value) {
+            map.put(key, value);
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized void clear() {
+            map.clear();
+        }
+    }
+}
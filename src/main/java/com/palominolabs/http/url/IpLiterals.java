@@ -0,0 +1,139 @@
+package com.palominolabs.http.url;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Recognizes hosts that are IP address literals, which are written into URLs as is rather than percent-encoded like
+ * reg-names. This scans the host once without regexes or allocation.
+ */
+@ThreadSafe
+final class IpLiterals {
+
+    private IpLiterals() {
+    }
+
+    /**
+     * @param host a host
+     * @return true if host is an IPv4 address or a bracketed IPv6 address
+     * @see IpLiterals#isIpv4(CharSequence, int, int)
+     * @see IpLiterals#isIpv6(CharSequence, int, int)
+     */
+    static boolean isIpLiteral(@Nonnull CharSequence host) {
+        int length = host.length();
+        if (length >= 2 && host.charAt(0) == '[' && host.charAt(length - 1) == ']') {
+            return isIpv6(host, 1, length - 1);
+        }
+        return isIpv4(host, 0, length);
+    }
+
+    /**
+     * IPv4 dotted quad: four '.'-separated decimal numbers of 1 to 3 digits, each no greater than 255. Leading zeros
+     * are allowed.
+     *
+     * @param input input
+     * @param start index of the first char to check
+     * @param end   index after the last char to check
+     * @return true if [start, end) is an IPv4 address
+     */
+    static boolean isIpv4(@Nonnull CharSequence input, int start, int end) {
+        int i = start;
+        for (int octet = 0; ; octet++) {
+            int octetStart = i;
+            int value = 0;
+            while (i < end && i - octetStart < 3 && isDigit(input.charAt(i))) {
+                value = value * 10 + input.charAt(i) - '0';
+                i++;
+            }
+            if (i == octetStart || value > 255) {
+                return false;
+            }
+
+            if (octet == 3) {
+                return i == end;
+            }
+            if (i == end || input.charAt(i) != '.') {
+                return false;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * IPv6 address in any of the text forms of RFC 4291 section 2.2: eight ':'-separated groups of 1 to 4 hex digits,
+     * with at most one "::" standing in for one or more groups of zeros, and optionally an IPv4 dotted quad in place of
+     * the last two groups. Zone IDs are not accepted.
+     *
+     * @param input input
+     * @param start index of the first char to check
+     * @param end   index after the last char to check
+     * @return true if [start, end) is an IPv6 address
+     */
+    static boolean isIpv6(@Nonnull CharSequence input, int start, int end) {
+        int groups = 0;
+        boolean compressed = false;
+        int i = start;
+
+        if (end - start >= 2 && input.charAt(start) == ':' && input.charAt(start + 1) == ':') {
+            compressed = true;
+            i += 2;
+            if (i == end) {
+                return true;
+            }
+        }
+
+        while (true) {
+            int groupStart = i;
+            while (i < end && i - groupStart < 4 && isHexDigit(input.charAt(i))) {
+                i++;
+            }
+
+            if (i < end && input.charAt(i) == '.') {
+                // an embedded IPv4 address is the last 32 bits, i.e. two groups
+                if (!isIpv4(input, groupStart, end)) {
+                    return false;
+                }
+                groups += 2;
+                break;
+            }
+
+            if (i == groupStart) {
+                return false;
+            }
+            groups++;
+
+            if (i == end) {
+                break;
+            }
+            if (input.charAt(i) != ':' || groups == 8) {
+                return false;
+            }
+            i++;
+
+            if (i < end && input.charAt(i) == ':') {
+                if (compressed) {
+                    return false;
+                }
+                compressed = true;
+                i++;
+                if (i == end) {
+                    break;
+                }
+            } else if (i == end) {
+                // a trailing single ':'
+                return false;
+            }
+        }
+
+        // "::" stands for at least one group
+        return compressed ? groups <= 7 : groups == 8;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
@@ -0,0 +1,142 @@
+package com.palominolabs.http.url;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.CharacterCodingException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntPredicate;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Splits large inputs into chunks, converts the chunks in parallel on a ForkJoinPool, and joins the results in order.
+ * Used by the parallel encode and decode methods of PercentEncoder and PercentDecoder.
+ */
+@ThreadSafe
+final class ParallelChunks {
+
+    /**
+     * Inputs shorter than this many chars are converted on the calling thread, since splitting them costs more than it
+     * saves
+     */
+    static final int DEFAULT_THRESHOLD = 1 << 20;
+
+    /**
+     * Target number of input chars per chunk
+     */
+    static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    private ParallelChunks() {
+    }
+
+    /**
+     * Converts one chunk of an input
+     */
+    interface ChunkConverter {
+        /**
+         * @param start index of the first char of the chunk
+         * @param end   index after the last char of the chunk
+         * @return the converted chunk
+         */
+        @Nonnull
+        String convert(int start, int end) throws CharacterCodingException;
+    }
+
+    /**
+     * @param length          input length
+     * @param chunkSize       minimum chunk length. Chunks are longer when there is no place to split at this length.
+     * @param canSplitBefore  true for an index if the input may be split so that a chunk starts there
+     * @return the start index of each chunk, followed by the input length
+     */
+    @Nonnull
+    static int[] boundaries(int length, int chunkSize, @Nonnull IntPredicate canSplitBefore) {
+        // every chunk but the last is at least chunkSize long
+        int[] boundaries = new int[length / chunkSize + 2];
+        int count = 0;
+        boundaries[count++] = 0;
+
+        int index = chunkSize;
+        while (index < length) {
+            while (index < length && !canSplitBefore.test(index)) {
+                index++;
+            }
+            if (index == length) {
+                break;
+            }
+
+            boundaries[count++] = index;
+            index += chunkSize;
+        }
+
+        boundaries[count++] = length;
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    /**
+     * Convert each chunk on the pool and join the results.
+     *
+     * @param pool       pool to convert chunks on
+     * @param boundaries chunk boundaries, as returned by {@link ParallelChunks#boundaries(int, int, IntPredicate)}
+     * @param converter  converter to call for each chunk
+     * @return the converted chunks, in order
+     * @throws RuntimeException if converting any chunk fails. A CharacterCodingException is wrapped in an
+     *                          UncheckedIOException. Since the pool may rethrow a copy of an exception, or the
+     *                          exception from a different chunk than a sequential conversion would have failed on,
+     *                          callers should redo the conversion sequentially to get the right exception.
+     */
+    @Nonnull
+    static String convert(@Nonnull ForkJoinPool pool, @Nonnull int[] boundaries,
+        @Nonnull ChunkConverter converter) {
+        String[] results = new String[boundaries.length - 1];
+        pool.invoke(new ChunkTask(boundaries, converter, results, 0, results.length));
+
+        int length = 0;
+        for (String result : results) {
+            length += result.length();
+        }
+        StringBuilder buf = new StringBuilder(length);
+        for (String result : results) {
+            buf.append(result);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Converts a range of chunks, splitting the range in half until there is only one chunk
+     */
+    private static final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] boundaries;
+        private final transient ChunkConverter converter;
+        private final String[] results;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ChunkTask(int[] boundaries, ChunkConverter converter, String[] results, int fromChunk, int toChunk) {
+            this.boundaries = boundaries;
+            this.converter = converter;
+            this.results = results;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (toChunk - fromChunk == 1) {
+                try {
+                    results[fromChunk] = converter.convert(boundaries[fromChunk], boundaries[toChunk]);
+                } catch (CharacterCodingException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return;
+            }
+
+            int middle = (fromChunk + toChunk) >>> 1;
+            invokeAll(new ChunkTask(boundaries, converter, results, fromChunk, middle),
+                new ChunkTask(boundaries, converter, results, middle, toChunk));
+        }
+    }
+}
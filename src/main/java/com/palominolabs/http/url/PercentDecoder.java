@@ -1,16 +1,27 @@
 package com.palominolabs.http.url;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.MalformedInputException;
 import java.nio.charset.UnmappableCharacterException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import static java.nio.charset.CoderResult.OVERFLOW;
 import static java.nio.charset.CoderResult.UNDERFLOW;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Decodes percent-encoded (%XX) Unicode text.
@@ -18,6 +29,27 @@ import static java.nio.charset.CoderResult.UNDERFLOW;
 @NotThreadSafe
 public final class PercentDecoder {
 
+    /**
+     * Number of chars read, and decoded chars buffered for output, at a time when streaming
+     */
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
+    /**
+     * Value of each hex digit char, or -1 for chars below 256 that aren't hex digits
+     */
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (char c = '0'; c <= '9'; c++) {
+            HEX_VALUES[c] = (byte) (c - '0');
+        }
+        for (char c = 'A'; c <= 'F'; c++) {
+            HEX_VALUES[c] = (byte) (c - 'A' + 10);
+            HEX_VALUES[Character.toLowerCase(c)] = (byte) (c - 'A' + 10);
+        }
+    }
+
     /**
      * bytes represented by the current sequence of %-triples. Resized as needed.
      */
@@ -29,11 +61,43 @@ public final class PercentDecoder {
     private final CharBuffer decodedCharBuf;
     private final CharsetDecoder decoder;
 
+    /**
+     * True if the charset is UTF-8, in which case bytes are converted to chars directly rather than via the
+     * CharsetDecoder
+     */
+    private final boolean utf8;
+
+    /**
+     * Byte to char mappings if the charset is single-byte (e.g. ISO-8859-1), in which case bytes are converted with a
+     * table lookup rather than via the CharsetDecoder. Null otherwise.
+     */
+    @Nullable
+    private final SingleByteCharsetTable singleByteTable;
+
+    /**
+     * True if '+' is decoded as a space, as in application/x-www-form-urlencoded
+     */
+    private final boolean plusAsSpace;
+
+    /**
+     * Decoder that reports all errors, used to validate bytes of charsets that have no faster path. Created when first
+     * needed.
+     */
+    @Nullable
+    private CharsetDecoder validationDecoder;
+
     /**
      * The decoded string for the current input
      */
     private final StringBuilder outputBuf = new StringBuilder();
 
+    /**
+     * True if some of the current run of encoded bytes has already been passed to the decoder, which happens when
+     * streaming input with a run of encoded bytes that doesn't fit in encodedBuf. The decoder must not be reset until
+     * the rest of the run has been decoded.
+     */
+    private boolean runPartlyDecoded;
+
     /**
      * Construct a new PercentDecoder with default buffer sizes.
      *
@@ -44,6 +108,18 @@ public final class PercentDecoder {
         this(charsetDecoder, 16, 16);
     }
 
+    /**
+     * Construct a new PercentDecoder with default buffer sizes.
+     *
+     * @param charsetDecoder Charset to decode bytes into chars with
+     * @param plusAsSpace    true to decode '+' as a space, as application/x-www-form-urlencoded does. Use this to
+     *                       decode the output of {@link UrlPercentEncoders#getFormEncoder()}.
+     * @see PercentDecoder#PercentDecoder(CharsetDecoder, int, int, boolean)
+     */
+    public PercentDecoder(@Nonnull CharsetDecoder charsetDecoder, boolean plusAsSpace) {
+        this(charsetDecoder, 16, 16, plusAsSpace);
+    }
+
     /**
      * @param charsetDecoder            Charset to decode bytes into chars with
      * @param initialEncodedByteBufSize Initial size of buffer that holds encoded bytes
@@ -51,12 +127,29 @@ public final class PercentDecoder {
      */
     public PercentDecoder(@Nonnull CharsetDecoder charsetDecoder, int initialEncodedByteBufSize,
         int decodedCharBufSize) {
+        this(charsetDecoder, initialEncodedByteBufSize, decodedCharBufSize, false);
+    }
+
+    /**
+     * @param charsetDecoder            Charset to decode bytes into chars with
+     * @param initialEncodedByteBufSize Initial size of buffer that holds encoded bytes
+     * @param decodedCharBufSize        Size of buffer that encoded bytes are decoded into
+     * @param plusAsSpace               true to decode '+' as a space, as application/x-www-form-urlencoded does
+     */
+    public PercentDecoder(@Nonnull CharsetDecoder charsetDecoder, int initialEncodedByteBufSize,
+        int decodedCharBufSize, boolean plusAsSpace) {
         encodedBuf = ByteBuffer.allocate(initialEncodedByteBufSize);
         decodedCharBuf = CharBuffer.allocate(decodedCharBufSize);
         decoder = charsetDecoder;
+        utf8 = charsetDecoder.charset().equals(UTF_8);
+        singleByteTable = utf8 ? null : SingleByteCharsetTable.forCharset(charsetDecoder.charset());
+        this.plusAsSpace = plusAsSpace;
     }
 
     /**
+     * If the input contains no '%' (and no '+', if '+' is decoded as a space), no copy is made: a String input is
+     * returned as is.
+     *
      * @param input Input with %-encoded representation of characters in this instance's configured character set, e.g.
      *              "%20" for a space character
      * @return Corresponding string with %-encoded data decoded and converted to their corresponding characters
@@ -66,24 +159,265 @@ public final class PercentDecoder {
      */
     @Nonnull
     public String decode(@Nonnull CharSequence input) throws MalformedInputException, UnmappableCharacterException {
+        return decode(input, 0, input.length(), false, null);
+    }
+
+    /**
+     * Decode part of the input as {@link PercentDecoder#decode(CharSequence)} would decode that part on its own,
+     * without first copying it to a new String.
+     *
+     * @param input Input with %-encoded representation of characters in this instance's configured character set
+     * @param start index of the first char to decode
+     * @param end   index after the last char to decode
+     * @return Corresponding string with %-encoded data decoded and converted to their corresponding characters
+     * @throws MalformedInputException      if decoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if decoder is configured to report errors and an unmappable character is
+     *                                      detected
+     * @throws IndexOutOfBoundsException    if start or end are outside the input, or start is after end
+     */
+    @Nonnull
+    public String decode(@Nonnull CharSequence input, int start, int end) throws MalformedInputException,
+        UnmappableCharacterException {
+        if (start < 0 || end > input.length() || start > end) {
+            throw new IndexOutOfBoundsException(
+                "Range [" + start + ", " + end + ") out of bounds for length " + input.length());
+        }
+        return decode(input, start, end, false, null);
+    }
+
+    /**
+     * Decode the input as {@link PercentDecoder#decode(CharSequence)} does, splitting large inputs into chunks that
+     * are decoded in parallel on the pool, each with its own decoder. Chunks never split a %-triple or a multi-byte
+     * char, so the output is the same as decoding the input all at once. Inputs shorter than about a million chars
+     * are decoded on the calling thread.
+     *
+     * For charsets other than UTF-8 and single-byte charsets, chunks can only be split between literal chars and
+     * %-triples, so input with very long runs of %-triples may be split into fewer chunks.
+     *
+     * If decoding any chunk fails, the whole input is decoded again on the calling thread, so exceptions are the same
+     * as from {@link PercentDecoder#decode(CharSequence)}.
+     *
+     * @param input Input with %-encoded representation of characters in this instance's configured character set
+     * @param pool  pool to decode chunks on
+     * @return the same string that {@link PercentDecoder#decode(CharSequence)} would return for the input
+     * @throws MalformedInputException      if decoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if decoder is configured to report errors and an unmappable character is
+     *                                      detected
+     */
+    @Nonnull
+    public String decodeParallel(@Nonnull CharSequence input, @Nonnull ForkJoinPool pool) throws
+        MalformedInputException, UnmappableCharacterException {
+        return decodeParallel(input, pool, ParallelChunks.DEFAULT_THRESHOLD, ParallelChunks.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param threshold inputs shorter than this are decoded on the calling thread
+     * @param chunkSize minimum number of chars per chunk
+     */
+    @Nonnull
+    String decodeParallel(@Nonnull CharSequence input, @Nonnull ForkJoinPool pool, int threshold, int chunkSize)
+        throws MalformedInputException, UnmappableCharacterException {
+        if (input.length() < threshold || pool.getParallelism() == 1) {
+            return decode(input);
+        }
+
+        // a String can't change while chunks are being decoded
+        String inputString = input.toString();
+        int[] boundaries = ParallelChunks.boundaries(inputString.length(), chunkSize,
+            i -> canSplitBefore(inputString, i));
+        if (boundaries.length == 2) {
+            return decode(inputString);
+        }
+
+        int encodedBufSize = encodedBuf.capacity();
+        try {
+            return ParallelChunks.convert(pool, boundaries,
+                (start, end) -> newChunkDecoder(encodedBufSize).decode(inputString.substring(start, end)));
+        } catch (RuntimeException e) {
+            // decode sequentially to throw the same exception as decode() would
+            return decode(inputString);
+        }
+    }
+
+    /**
+     * Decode the input the way browsers do: a '%' that isn't followed by two hex digits (e.g. "%zz", or "%4" at the
+     * end of the input) is not an error, and is passed through to the output as a literal '%'. The chars after it
+     * are then decoded as usual, so "%%41" decodes to "%A".
+     *
+     * No exception is thrown for invalid %-sequences, so this is much cheaper than catching the
+     * IllegalArgumentException that {@link PercentDecoder#decode(CharSequence)} throws when input is untrusted.
+     *
+     * @param input Input with %-encoded representation of characters in this instance's configured character set
+     * @return Corresponding string with valid %-encoded data decoded and invalid %-sequences left as is
+     * @throws MalformedInputException      if decoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if decoder is configured to report errors and an unmappable character is
+     *                                      detected
+     * @see PercentDecoder#decodeLenient(CharSequence, PercentDecoderErrorHandler)
+     */
+    @Nonnull
+    public String decodeLenient(@Nonnull CharSequence input) throws MalformedInputException,
+        UnmappableCharacterException {
+        return decode(input, 0, input.length(), true, null);
+    }
+
+    /**
+     * Decode the input as {@link PercentDecoder#decodeLenient(CharSequence)} does, and also tell errorHandler where
+     * each invalid %-sequence is.
+     *
+     * @param input        Input with %-encoded representation of characters in this instance's configured character
+     *                     set
+     * @param errorHandler called with the position of the '%' of each invalid %-sequence, in order
+     * @return Corresponding string with valid %-encoded data decoded and invalid %-sequences left as is
+     * @throws MalformedInputException      if decoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if decoder is configured to report errors and an unmappable character is
+     *                                      detected
+     */
+    @Nonnull
+    public String decodeLenient(@Nonnull CharSequence input, @Nonnull PercentDecoderErrorHandler errorHandler)
+        throws MalformedInputException, UnmappableCharacterException {
+        return decode(input, 0, input.length(), true, errorHandler);
+    }
+
+    /**
+     * Check that the input is valid percent-encoded text without decoding it.
+     *
+     * @param allowedChars chars that may appear unencoded, e.g. {@link PercentEncoder#getSafeChars()} of the encoder
+     *                     for the URL component that the input is from
+     * @return the index of the first invalid char in the input, or -1 if the input is valid
+     * @see PercentDecoder#validate(CharSequence, int, int, SafeCharSet)
+     */
+    public int validate(@Nonnull CharSequence input, @Nonnull SafeCharSet allowedChars) {
+        return validate(input, 0, input.length(), allowedChars);
+    }
+
+    /**
+     * Check that part of the input is valid percent-encoded text without decoding it, or allocating anything other
+     * than (rarely) a larger buffer for long runs of %-triples. The input is valid if:
+     *
+     * <ul>
+     * <li>every char other than '%' is in allowedChars, or is a '+' and '+' is decoded as a space</li>
+     * <li>every '%' is followed by two hex digits</li>
+     * <li>every run of %-triples is a valid encoding in this instance's charset, no matter what error actions the
+     * decoder is configured with</li>
+     * </ul>
+     *
+     * @param input        input to check
+     * @param start        index of the first char to check
+     * @param end          index after the last char to check
+     * @param allowedChars chars that may appear unencoded, e.g. {@link PercentEncoder#getSafeChars()} of the encoder
+     *                     for the URL component that the input is from
+     * @return the index in the input of the first invalid char, or -1 if the range is valid. For bytes that aren't
+     * valid in the charset, this is the index of the '%' of the first byte that can't be decoded.
+     * @throws IndexOutOfBoundsException if start or end are outside the input, or start is after end
+     */
+    public int validate(@Nonnull CharSequence input, int start, int end, @Nonnull SafeCharSet allowedChars) {
+        if (start < 0 || end > input.length() || start > end) {
+            throw new IndexOutOfBoundsException(
+                "Range [" + start + ", " + end + ") out of bounds for length " + input.length());
+        }
+
+        encodedBuf.clear();
+        // index of the first %-triple in the current run of encoded bytes
+        int runStart = start;
+
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (c == '%' && i + 2 < end) {
+                int msBits = hexValue(input.charAt(i + 1));
+                int lsBits = hexValue(input.charAt(i + 2));
+                if (msBits != -1 && lsBits != -1) {
+                    if (encodedBuf.position() == 0) {
+                        runStart = i;
+                    } else if (!encodedBuf.hasRemaining()) {
+                        ByteBuffer largerBuf = ByteBuffer.allocate(encodedBuf.capacity() * 2);
+                        encodedBuf.flip();
+                        largerBuf.put(encodedBuf);
+                        encodedBuf = largerBuf;
+                    }
+                    encodedBuf.put((byte) (msBits << 4 | lsBits));
+                    i += 2;
+                    continue;
+                }
+            }
+
+            // the run of encoded bytes (if any) is before this char, so an error in it comes first
+            int invalid = invalidEncodedByteIndex(runStart);
+            if (invalid != -1) {
+                return invalid;
+            }
+
+            if (c == '%' || !(allowedChars.contains(c) || c == '+' && plusAsSpace)) {
+                return i;
+            }
+        }
+
+        return invalidEncodedByteIndex(runStart);
+    }
+
+    /**
+     * @param lenient      true to pass invalid %-sequences through as literal text rather than throwing
+     * @param errorHandler if lenient, told about each invalid %-sequence. May be null.
+     */
+    @Nonnull
+    private String decode(@Nonnull CharSequence input, int start, int end, boolean lenient,
+        @Nullable PercentDecoderErrorHandler errorHandler) throws MalformedInputException,
+        UnmappableCharacterException {
+        // '+' is searched for separately so that both searches can use String.indexOf()
+        int nextPlus = plusAsSpace ? indexOf(input, '+', start, end) : end;
+        int firstSpecial = Math.min(indexOf(input, '%', start, end), nextPlus);
+
+        if (firstSpecial == end) {
+            // nothing to decode; for the whole of a String, subSequence() and toString() return the same instance
+            return input.subSequence(start, end).toString();
+        }
+
         outputBuf.setLength(0);
         // this is almost always an underestimate of the size needed:
         // only a 4-byte encoding (which is 12 characters input) would case this to be an overestimate
-        outputBuf.ensureCapacity(input.length() / 8);
+        outputBuf.ensureCapacity((end - start) / 8);
         encodedBuf.clear();
+        runPartlyDecoded = false;
+
+        outputBuf.append(input, start, firstSpecial);
 
-        for (int i = 0; i < input.length(); i++) {
+        for (int i = firstSpecial; i < end; i++) {
             char c = input.charAt(i);
             if (c != '%') {
                 handleEncodedBytes();
 
-                outputBuf.append(c);
+                if (i == nextPlus) {
+                    outputBuf.append(' ');
+                    nextPlus = indexOf(input, '+', i + 1, end);
+                    continue;
+                }
+
+                // copy the whole run of chars up to the next '%' or '+' at once
+                int nextSpecial = Math.min(indexOf(input, '%', i + 1, end), nextPlus);
+                outputBuf.append(input, i, nextSpecial);
+                // the loop increment will move i onto the '%' or '+'
+                i = nextSpecial - 1;
                 continue;
             }
 
-            if (i + 2 >= input.length()) {
-                throw new IllegalArgumentException(
-                    "Could not percent decode <" + input + ">: incomplete %-pair at position " + i);
+            int msBits = i + 2 < end ? hexValue(input.charAt(i + 1)) : -1;
+            int lsBits = i + 2 < end ? hexValue(input.charAt(i + 2)) : -1;
+
+            if (msBits == -1 || lsBits == -1) {
+                if (lenient) {
+                    // the '%' is just a char; whatever follows it is decoded as usual
+                    handleEncodedBytes();
+                    outputBuf.append('%');
+                    if (errorHandler != null) {
+                        errorHandler.onInvalidPercentSequence(i - start);
+                    }
+                    continue;
+                }
+
+                if (i + 2 >= end) {
+                    throw new IllegalArgumentException("Could not percent decode <" + input.subSequence(start, end)
+                        + ">: incomplete %-pair at position " + (i - start));
+                }
+                throw new IllegalArgumentException("Invalid %-tuple <" + input.subSequence(i, i + 3) + ">");
             }
 
             // grow the byte buf if needed
@@ -94,13 +428,7 @@ public final class PercentDecoder {
                 encodedBuf = largerBuf;
             }
 
-            // note that we advance i here as we consume chars
-            int msBits = Character.digit(input.charAt(++i), 16);
-            int lsBits = Character.digit(input.charAt(++i), 16);
-
-            if (msBits == -1 || lsBits == -1) {
-                throw new IllegalArgumentException("Invalid %-tuple <" + input.subSequence(i - 2, i + 1) + ">");
-            }
+            i += 2;
 
             msBits <<= 4;
             msBits |= lsBits;
@@ -114,16 +442,341 @@ public final class PercentDecoder {
         return outputBuf.toString();
     }
 
+    /**
+     * Decode all the chars that can be read from input and write the decoded text to output, using buffers of a fixed
+     * size no matter how long the input is. %-triples and multi-byte chars that are split across reads are decoded as
+     * if the input had been read all at once.
+     *
+     * Neither input nor output are closed or flushed. Decoded text may have been written to output before an exception
+     * is thrown. If the input has more than one error, the error reported may not be the same one that {@link
+     * PercentDecoder#decode(CharSequence)} would report, since long runs of encoded bytes are decoded a piece at a
+     * time.
+     *
+     * @param input  input with %-encoded representation of characters in this instance's configured character set
+     * @param output where to write the decoded input
+     * @throws MalformedInputException      if decoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if decoder is configured to report errors and an unmappable character is
+     *                                      detected
+     * @throws IOException                  if reading from input or writing to output fails
+     */
+    public void decode(@Nonnull Reader input, @Nonnull Writer output) throws IOException {
+        char[] chunk = new char[STREAM_BUFFER_SIZE];
+        char[] outputChunk = new char[STREAM_BUFFER_SIZE];
+        outputBuf.setLength(0);
+        encodedBuf.clear();
+        runPartlyDecoded = false;
+
+        // number of chars at the start of chunk that were held back from the previous chunk
+        int carried = 0;
+        // position in the input of the start of chunk
+        long chunkPosition = 0;
+        while (true) {
+            int read = input.read(chunk, carried, chunk.length - carried);
+            boolean endOfInput = read == -1;
+            int end = endOfInput ? carried : carried + read;
+
+            int i = 0;
+            while (i < end) {
+                char c = chunk[i];
+                if (c == '%') {
+                    if (i + 2 >= end) {
+                        if (!endOfInput) {
+                            // the rest of the %-triple hasn't been read yet
+                            break;
+                        }
+                        throw new IllegalArgumentException(
+                            "Could not percent decode input: incomplete %-pair at position " + (chunkPosition + i));
+                    }
+
+                    int msBits = hexValue(chunk[i + 1]);
+                    int lsBits = hexValue(chunk[i + 2]);
+                    if (msBits == -1 || lsBits == -1) {
+                        throw new IllegalArgumentException("Invalid %-tuple <" + new String(chunk, i, 3) + ">");
+                    }
+
+                    if (!encodedBuf.hasRemaining()) {
+                        decodeEncodedBytesSoFar();
+                    }
+                    encodedBuf.put((byte) (msBits << 4 | lsBits));
+                    i += 3;
+                    continue;
+                }
+
+                handleEncodedBytes();
+
+                if (c == '+' && plusAsSpace) {
+                    outputBuf.append(' ');
+                    i++;
+                    continue;
+                }
+
+                // copy the whole run of chars up to the next '%' or '+' at once
+                int runEnd = i + 1;
+                while (runEnd < end && chunk[runEnd] != '%' && !(chunk[runEnd] == '+' && plusAsSpace)) {
+                    runEnd++;
+                }
+                outputBuf.append(chunk, i, runEnd - i);
+                i = runEnd;
+            }
+
+            writeOutputBuf(output, outputChunk);
+
+            if (endOfInput) {
+                break;
+            }
+
+            carried = end - i;
+            System.arraycopy(chunk, i, chunk, 0, carried);
+            chunkPosition += i;
+        }
+
+        handleEncodedBytes();
+        writeOutputBuf(output, outputChunk);
+    }
+
+    /**
+     * Decode all the percent-encoded US-ASCII text that can be read from input and write the decoded text to output,
+     * using buffers of a fixed size no matter how long the input is.
+     *
+     * Neither input nor output are closed or flushed.
+     *
+     * @param input  blocking channel with US-ASCII bytes of %-encoded representation of characters in this instance's
+     *               configured character set
+     * @param output where to write the decoded input
+     * @throws MalformedInputException      if input contains a byte that isn't US-ASCII, or decoder is configured to
+     *                                      report errors and malformed input is detected
+     * @throws UnmappableCharacterException if decoder is configured to report errors and an unmappable character is
+     *                                      detected
+     * @throws IOException                  if reading from input or writing to output fails
+     * @see PercentDecoder#decode(Reader, Writer)
+     */
+    public void decode(@Nonnull ReadableByteChannel input, @Nonnull Writer output) throws IOException {
+        CharsetDecoder asciiDecoder = US_ASCII.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+        decode(Channels.newReader(input, asciiDecoder, STREAM_BUFFER_SIZE), output);
+    }
+
+    /**
+     * Decode percent-encoded text that is still in byte form, e.g. as read from the network, without first converting
+     * it to a String.
+     *
+     * US-ASCII bytes are treated exactly as the corresponding chars would be by {@link
+     * PercentDecoder#decode(CharSequence)}. Non-ASCII bytes, e.g. raw UTF-8, are treated as if they had been
+     * %-encoded: they are decoded with this instance's configured character set along with any adjacent %-encoded
+     * bytes.
+     *
+     * @param input  bytes of text with %-encoded representation of characters in this instance's configured character
+     *               set
+     * @param offset index of the first byte to decode
+     * @param length number of bytes to decode
+     * @return Corresponding string with %-encoded data decoded and converted to their corresponding characters
+     * @throws MalformedInputException      if decoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if decoder is configured to report errors and an unmappable character is
+     *                                      detected
+     */
+    @Nonnull
+    public String decode(@Nonnull byte[] input, int offset, int length) throws MalformedInputException,
+        UnmappableCharacterException {
+        return decode(ByteBuffer.wrap(input, offset, length));
+    }
+
+    /**
+     * Decode the bytes between the buffer's position and limit as per {@link PercentDecoder#decode(byte[], int, int)}.
+     * The buffer may be a direct buffer. If decoding succeeds, the buffer's position is advanced to its limit; if it
+     * fails, the position is not changed.
+     *
+     * @param input bytes of text with %-encoded representation of characters in this instance's configured character
+     *              set
+     * @return Corresponding string with %-encoded data decoded and converted to their corresponding characters
+     * @throws MalformedInputException      if decoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if decoder is configured to report errors and an unmappable character is
+     *                                      detected
+     */
+    @Nonnull
+    public String decode(@Nonnull ByteBuffer input) throws MalformedInputException, UnmappableCharacterException {
+        decodeBytes(input);
+        return outputBuf.toString();
+    }
+
+    /**
+     * Decode the bytes between the buffer's position and limit as per {@link PercentDecoder#decode(ByteBuffer)}, and
+     * append the decoded text to a StringBuilder.
+     *
+     * @param input  bytes of text with %-encoded representation of characters in this instance's configured character
+     *               set
+     * @param output StringBuilder to append the decoded text to
+     * @throws MalformedInputException      if decoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if decoder is configured to report errors and an unmappable character is
+     *                                      detected
+     */
+    public void decodeTo(@Nonnull ByteBuffer input, @Nonnull StringBuilder output) throws MalformedInputException,
+        UnmappableCharacterException {
+        decodeBytes(input);
+        output.append(outputBuf);
+    }
+
+    /**
+     * Decode the bytes between the buffer's position and limit into the output buf.
+     *
+     * @param input bytes to decode
+     */
+    private void decodeBytes(ByteBuffer input) throws MalformedInputException, UnmappableCharacterException {
+        outputBuf.setLength(0);
+        encodedBuf.clear();
+        runPartlyDecoded = false;
+
+        int start = input.position();
+        int end = input.limit();
+        if (encodedBuf.capacity() < Math.min(end - start, STREAM_BUFFER_SIZE)) {
+            // decode in fewer, larger pieces
+            encodedBuf = ByteBuffer.allocate(Math.min(end - start, STREAM_BUFFER_SIZE));
+        }
+
+        // absolute gets work the same for heap and direct buffers, and don't disturb the position
+        for (int i = start; i < end; i++) {
+            byte b = input.get(i);
+            if (b == '%') {
+                if (i + 2 >= end) {
+                    throw new IllegalArgumentException(
+                        "Could not percent decode input: incomplete %-pair at position " + (i - start));
+                }
+
+                char msChar = (char) (input.get(i + 1) & 0xFF);
+                char lsChar = (char) (input.get(i + 2) & 0xFF);
+                int msBits = hexValue(msChar);
+                int lsBits = hexValue(lsChar);
+                if (msBits == -1 || lsBits == -1) {
+                    throw new IllegalArgumentException("Invalid %-tuple <%" + msChar + lsChar + ">");
+                }
+
+                b = (byte) (msBits << 4 | lsBits);
+                i += 2;
+            } else if (b >= 0) {
+                // an ASCII char, which is handled just like a literal char in a CharSequence input
+                handleEncodedBytes();
+                outputBuf.append(b == '+' && plusAsSpace ? ' ' : (char) b);
+                continue;
+            }
+
+            if (!encodedBuf.hasRemaining()) {
+                decodeEncodedBytesSoFar();
+            }
+            encodedBuf.put(b);
+        }
+
+        handleEncodedBytes();
+        input.position(end);
+    }
+
+    /**
+     * Write the contents of the output buf to output and clear it.
+     *
+     * @param output      where to write the output buf
+     * @param outputChunk buffer to copy output through
+     */
+    private void writeOutputBuf(Writer output, char[] outputChunk) throws IOException {
+        int length = outputBuf.length();
+        for (int start = 0; start < length; start += outputChunk.length) {
+            int end = Math.min(length, start + outputChunk.length);
+            outputBuf.getChars(start, end, outputChunk, 0);
+            output.write(outputChunk, 0, end - start);
+        }
+        outputBuf.setLength(0);
+    }
+
+    /**
+     * @param input valid percent-encoded input
+     * @param index index in the input, after the first char
+     * @return true if decoding the input in two pieces split at index would give the same result as decoding it all at
+     * once. For invalid input, decoding at least one of the pieces fails.
+     */
+    private boolean canSplitBefore(String input, int index) {
+        // a '%' always starts a %-triple in valid input, so index must not be one or two chars after one
+        if (input.charAt(index - 1) == '%' || (index > 1 && input.charAt(index - 2) == '%')) {
+            return false;
+        }
+        if (input.charAt(index) != '%') {
+            // a literal char ends the run of encoded bytes before it
+            return true;
+        }
+        if (singleByteTable != null) {
+            return true;
+        }
+        if (utf8 && index + 1 < input.length()) {
+            // not a continuation byte (8 to B in the high hex digit), so a UTF-8 sequence can't span the split
+            int msBits = hexValue(input.charAt(index + 1));
+            return msBits < 0x8 || msBits > 0xB;
+        }
+        return false;
+    }
+
+    /**
+     * @param encodedBufSize initial size of the new decoder's buffer of encoded bytes
+     * @return a new decoder with the same configuration as this one
+     */
+    private PercentDecoder newChunkDecoder(int encodedBufSize) {
+        CharsetDecoder chunkDecoder = decoder.charset().newDecoder()
+            .onMalformedInput(decoder.malformedInputAction())
+            .onUnmappableCharacter(decoder.unmappableCharacterAction())
+            .replaceWith(decoder.replacement());
+        return new PercentDecoder(chunkDecoder, encodedBufSize, decodedCharBuf.capacity(), plusAsSpace);
+    }
+
+    /**
+     * @param c a char
+     * @return the value of c as a hex digit, or -1 if it isn't one
+     */
+    private static int hexValue(char c) {
+        return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+    }
+
+    /**
+     * @param input input to search
+     * @param c     char to search for
+     * @param from  index to start searching at
+     * @param end   index to stop searching at
+     * @return the index of the first c at or after from and before end, or end if there isn't one
+     */
+    private static int indexOf(CharSequence input, char c, int from, int end) {
+        if (input instanceof String && end == input.length()) {
+            // String.indexOf() is a JIT intrinsic that scans many chars per instruction with SIMD where available
+            int index = ((String) input).indexOf(c, from);
+            return index == -1 ? end : index;
+        }
+
+        for (int i = from; i < end; i++) {
+            if (input.charAt(i) == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
     /**
      * Decode any buffered encoded bytes and write them to the output buf.
      */
     private void handleEncodedBytes() throws MalformedInputException, UnmappableCharacterException {
-        if (encodedBuf.position() == 0) {
+        if (encodedBuf.position() == 0 && !runPartlyDecoded) {
             // nothing to do
             return;
         }
 
-        decoder.reset();
+        if (singleByteTable != null) {
+            decodeSingleByte();
+            return;
+        }
+
+        if (utf8) {
+            decodeUtf8(encodedBuf.array(), encodedBuf.position(), true);
+            encodedBuf.clear();
+            return;
+        }
+
+        if (!runPartlyDecoded) {
+            decoder.reset();
+        }
+        runPartlyDecoded = false;
         CoderResult coderResult;
 
         // switch to reading mode
@@ -157,6 +810,332 @@ public final class PercentDecoder {
         flush();
     }
 
+    /**
+     * Decode as many of the buffered encoded bytes as possible without reaching the end of the current run, and write
+     * them to the output buf. Bytes of an incomplete char are kept in the buffer.
+     */
+    private void decodeEncodedBytesSoFar() throws MalformedInputException, UnmappableCharacterException {
+        if (singleByteTable != null) {
+            decodeSingleByte();
+            return;
+        }
+
+        if (utf8) {
+            int decoded = decodeUtf8(encodedBuf.array(), encodedBuf.position(), false);
+            encodedBuf.flip();
+            encodedBuf.position(decoded);
+            encodedBuf.compact();
+        } else {
+            if (!runPartlyDecoded) {
+                decoder.reset();
+                runPartlyDecoded = true;
+            }
+
+            encodedBuf.flip();
+            CoderResult coderResult;
+            do {
+                decodedCharBuf.clear();
+                coderResult = decoder.decode(encodedBuf, decodedCharBuf, false);
+                throwIfError(coderResult);
+                appendDecodedChars();
+            } while (coderResult == OVERFLOW);
+            encodedBuf.compact();
+        }
+
+        if (!encodedBuf.hasRemaining()) {
+            // the buffer is too small to hold a single char's bytes
+            ByteBuffer largerBuf = ByteBuffer.allocate(encodedBuf.capacity() * 2);
+            encodedBuf.flip();
+            largerBuf.put(encodedBuf);
+            encodedBuf = largerBuf;
+        }
+    }
+
+    /**
+     * Decode the buffered encoded bytes of a single-byte charset with the table, and write them to the output buf.
+     */
+    private void decodeSingleByte() throws MalformedInputException, UnmappableCharacterException {
+        byte[] bytes = encodedBuf.array();
+        int length = encodedBuf.position();
+        for (int i = 0; i < length; i++) {
+            int c = singleByteTable.decode(bytes[i]);
+            if (c >= 0) {
+                outputBuf.append((char) c);
+                continue;
+            }
+
+            appendUndecodable(c == SingleByteCharsetTable.MALFORMED, 1);
+        }
+
+        encodedBuf.clear();
+    }
+
+    /**
+     * Decode UTF-8 bytes and write them to the output buf. Malformed input is handled exactly as the JDK's UTF-8
+     * CharsetDecoder handles it, including the length of each malformed sequence, so that the results are the same as
+     * decoding via a CharsetDecoder.
+     *
+     * @param bytes     encoded bytes
+     * @param length    number of bytes to decode
+     * @param endOfRun  true if there are no more bytes in the current run, so an incomplete char at the end is
+     *                  malformed, false if it may be completed by bytes that haven't been buffered yet
+     * @return the number of bytes decoded, which is only less than length if endOfRun is false and the bytes end with
+     * an incomplete char
+     */
+    private int decodeUtf8(byte[] bytes, int length, boolean endOfRun) throws MalformedInputException,
+        UnmappableCharacterException {
+        int i = 0;
+        while (i < length) {
+            int b1 = bytes[i];
+            if (b1 >= 0) {
+                outputBuf.append((char) b1);
+                i++;
+                continue;
+            }
+
+            int remaining = length - i;
+            int malformedLength;
+
+            if ((b1 >> 5) == -2 && (b1 & 0x1E) != 0) {
+                // 2 bytes, 11 bits: 110xxxxx 10xxxxxx (C0 and C1 would be overlong)
+                if (remaining < 2) {
+                    if (!endOfRun) {
+                        return i;
+                    }
+                    malformedLength = remaining;
+                } else {
+                    int b2 = bytes[i + 1];
+                    if (isNotContinuation(b2)) {
+                        malformedLength = 1;
+                    } else {
+                        outputBuf.append((char) ((b1 & 0x1F) << 6 | b2 & 0x3F));
+                        i += 2;
+                        continue;
+                    }
+                }
+            } else if ((b1 >> 4) == -2) {
+                // 3 bytes, 16 bits: 1110xxxx 10xxxxxx 10xxxxxx
+                if (remaining < 3) {
+                    if (remaining > 1 && isMalformed3Prefix(b1, bytes[i + 1])) {
+                        malformedLength = 1;
+                    } else if (!endOfRun) {
+                        return i;
+                    } else {
+                        malformedLength = remaining;
+                    }
+                } else {
+                    int b2 = bytes[i + 1];
+                    int b3 = bytes[i + 2];
+                    if (isMalformed3Prefix(b1, b2)) {
+                        malformedLength = 1;
+                    } else if (isNotContinuation(b3)) {
+                        malformedLength = 2;
+                    } else {
+                        char c = (char) ((b1 & 0x0F) << 12 | (b2 & 0x3F) << 6 | b3 & 0x3F);
+                        if (Character.isSurrogate(c)) {
+                            malformedLength = 3;
+                        } else {
+                            outputBuf.append(c);
+                            i += 3;
+                            continue;
+                        }
+                    }
+                }
+            } else if ((b1 >> 3) == -2) {
+                // 4 bytes, 21 bits: 11110xxx 10xxxxxx 10xxxxxx 10xxxxxx
+                int lead = b1 & 0xFF;
+                if (remaining < 4) {
+                    if (lead > 0xF4 || remaining > 1 && isMalformed4Prefix(lead, bytes[i + 1] & 0xFF)) {
+                        malformedLength = 1;
+                    } else if (remaining > 2 && isNotContinuation(bytes[i + 2])) {
+                        malformedLength = 2;
+                    } else if (!endOfRun) {
+                        return i;
+                    } else {
+                        malformedLength = remaining;
+                    }
+                } else {
+                    int b2 = bytes[i + 1];
+                    int b3 = bytes[i + 2];
+                    int b4 = bytes[i + 3];
+                    if (lead > 0xF4 || isMalformed4Prefix(lead, b2 & 0xFF)) {
+                        // overlong, above U+10FFFF, or not a continuation byte
+                        malformedLength = 1;
+                    } else if (isNotContinuation(b3)) {
+                        malformedLength = 2;
+                    } else if (isNotContinuation(b4)) {
+                        malformedLength = 3;
+                    } else {
+                        int codePoint = (b1 & 0x07) << 18 | (b2 & 0x3F) << 12 | (b3 & 0x3F) << 6 | b4 & 0x3F;
+                        outputBuf.append(Character.highSurrogate(codePoint));
+                        outputBuf.append(Character.lowSurrogate(codePoint));
+                        i += 4;
+                        continue;
+                    }
+                }
+            } else {
+                // a continuation byte, or a lead byte that can't start a valid sequence
+                malformedLength = 1;
+            }
+
+            appendUndecodable(true, malformedLength);
+            i += malformedLength;
+        }
+
+        return i;
+    }
+
+    /**
+     * Check the buffered run of encoded bytes, and clear the buffer.
+     *
+     * @param runStart index in the input of the '%' of the first byte in the buffer
+     * @return the index in the input of the '%' of the first byte that can't be decoded, or -1 if all can be
+     */
+    private int invalidEncodedByteIndex(int runStart) {
+        int length = encodedBuf.position();
+        if (length == 0) {
+            return -1;
+        }
+
+        byte[] bytes = encodedBuf.array();
+        int invalid = -1;
+        if (singleByteTable != null) {
+            for (int i = 0; i < length; i++) {
+                if (singleByteTable.decode(bytes[i]) < 0) {
+                    invalid = i;
+                    break;
+                }
+            }
+        } else if (utf8) {
+            invalid = invalidUtf8Index(bytes, length);
+        } else {
+            invalid = invalidCharsetBytesIndex();
+        }
+
+        encodedBuf.clear();
+        return invalid == -1 ? -1 : runStart + invalid * 3;
+    }
+
+    /**
+     * @param bytes  encoded bytes
+     * @param length number of bytes to check
+     * @return the index of the first byte of the first sequence that isn't valid UTF-8, or -1 if all are valid
+     */
+    private static int invalidUtf8Index(byte[] bytes, int length) {
+        int i = 0;
+        while (i < length) {
+            int b1 = bytes[i];
+            int remaining = length - i;
+            if (b1 >= 0) {
+                i++;
+            } else if ((b1 >> 5) == -2 && (b1 & 0x1E) != 0) {
+                if (remaining < 2 || isNotContinuation(bytes[i + 1])) {
+                    return i;
+                }
+                i += 2;
+            } else if ((b1 >> 4) == -2) {
+                // ED A0 to ED BF would be a surrogate
+                if (remaining < 3 || isMalformed3Prefix(b1, bytes[i + 1]) || isNotContinuation(bytes[i + 2])
+                    || (b1 == (byte) 0xED && (bytes[i + 1] & 0xE0) == 0xA0)) {
+                    return i;
+                }
+                i += 3;
+            } else if ((b1 >> 3) == -2) {
+                int lead = b1 & 0xFF;
+                if (remaining < 4 || lead > 0xF4 || isMalformed4Prefix(lead, bytes[i + 1] & 0xFF)
+                    || isNotContinuation(bytes[i + 2]) || isNotContinuation(bytes[i + 3])) {
+                    return i;
+                }
+                i += 4;
+            } else {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Check the buffered encoded bytes with a CharsetDecoder that reports all errors.
+     *
+     * @return the index of the first byte that can't be decoded, or -1 if all can be
+     */
+    private int invalidCharsetBytesIndex() {
+        if (validationDecoder == null) {
+            // new decoders report errors by default
+            validationDecoder = decoder.charset().newDecoder();
+        }
+        validationDecoder.reset();
+
+        encodedBuf.flip();
+        CoderResult coderResult;
+        do {
+            decodedCharBuf.clear();
+            coderResult = validationDecoder.decode(encodedBuf, decodedCharBuf, true);
+        } while (coderResult.isOverflow());
+
+        if (coderResult.isError()) {
+            return encodedBuf.position();
+        }
+
+        do {
+            decodedCharBuf.clear();
+            coderResult = validationDecoder.flush(decodedCharBuf);
+        } while (coderResult.isOverflow());
+
+        return coderResult.isError() ? encodedBuf.position() : -1;
+    }
+
+    /**
+     * @param b a byte
+     * @return true if b is not a UTF-8 continuation byte (10xxxxxx)
+     */
+    private static boolean isNotContinuation(int b) {
+        return (b & 0xC0) != 0x80;
+    }
+
+    /**
+     * @param b1 lead byte of a 3 byte sequence
+     * @param b2 second byte
+     * @return true if the sequence is malformed at b2, either because it is overlong or b2 is not a continuation byte
+     */
+    private static boolean isMalformed3Prefix(int b1, int b2) {
+        return (b1 == (byte) 0xE0 && (b2 & 0xE0) == 0x80) || isNotContinuation(b2);
+    }
+
+    /**
+     * @param b1 lead byte (0-255) of a 4 byte sequence
+     * @param b2 second byte (0-255)
+     * @return true if the sequence is malformed at b2, either because it is overlong, encodes a code point above
+     * U+10FFFF, or b2 is not a continuation byte
+     */
+    private static boolean isMalformed4Prefix(int b1, int b2) {
+        return (b1 == 0xF0 && (b2 < 0x90 || b2 > 0xBF)) || (b1 == 0xF4 && (b2 & 0xF0) != 0x80)
+            || isNotContinuation(b2);
+    }
+
+    /**
+     * Report, replace or ignore bytes that can't be decoded, as per the decoder's configured error action.
+     *
+     * @param malformed true if the bytes are malformed, false if they are unmappable
+     * @param length    number of bytes that can't be decoded
+     * @throws MalformedInputException      if the bytes are malformed and the decoder is configured to report that
+     * @throws UnmappableCharacterException if the bytes are unmappable and the decoder is configured to report that
+     */
+    private void appendUndecodable(boolean malformed, int length) throws MalformedInputException,
+        UnmappableCharacterException {
+        CodingErrorAction action = malformed ? decoder.malformedInputAction() : decoder.unmappableCharacterAction();
+        if (action == CodingErrorAction.REPORT) {
+            if (malformed) {
+                throw new MalformedInputException(length);
+            }
+            throw new UnmappableCharacterException(length);
+        }
+        if (action == CodingErrorAction.REPLACE) {
+            outputBuf.append(decoder.replacement());
+        }
+    }
+
     /**
      * Must only be called when the input encoded bytes buffer is empty
      */
@@ -0,0 +1,20 @@
+package com.palominolabs.http.url;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A callback used during lenient percent decoding to find out where the input has invalid %-sequences, without the
+ * cost of an exception per error.
+ *
+ * @see PercentDecoder#decodeLenient(CharSequence, PercentDecoderErrorHandler)
+ */
+@NotThreadSafe
+public interface PercentDecoderErrorHandler {
+    /**
+     * Called for each '%' in the input that isn't followed by two hex digits. The '%' is passed through to the
+     * decoded output as is.
+     *
+     * @param position index in the input of the '%'
+     */
+    void onInvalidPercentSequence(int position);
+}
@@ -5,53 +5,148 @@
 package com.palominolabs.http.url;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.MalformedInputException;
 import java.nio.charset.UnmappableCharacterException;
 import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
 
 import static java.lang.Character.isHighSurrogate;
 import static java.lang.Character.isLowSurrogate;
+import static java.lang.Character.isSurrogate;
+import static java.lang.Character.toCodePoint;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Encodes unsafe characters as a sequence of %XX hex-encoded bytes.
  *
  * This is typically done when encoding components of URLs. See {@link UrlPercentEncoders} for pre-configured
  * PercentEncoder instances.
+ *
+ * Instances are immutable and may be shared across threads.
  */
-@NotThreadSafe
+@ThreadSafe
 public final class PercentEncoder {
 
     private static final char[] HEX_CODE = "0123456789ABCDEF".toCharArray();
 
-    private final BitSet safeChars;
-    private final CharsetEncoder encoder;
     /**
-     * Pre-allocate a string handler to make the common case of encoding to a string faster
+     * Number of chars read, and chars or bytes buffered for output, at a time when streaming
+     */
+    private static final int STREAM_BUFFER_SIZE = 8192;
+
+    private final SafeCharSet safeChars;
+
+    private final Charset charset;
+    private final CodingErrorAction malformedInputAction;
+    private final CodingErrorAction unmappableCharacterAction;
+    /**
+     * Bytes to output in place of malformed or unmappable input
      */
-    private final StringBuilderPercentEncoderOutputHandler stringHandler = new StringBuilderPercentEncoderOutputHandler();
-    private final ByteBuffer encodedBytes;
-    private final CharBuffer unsafeCharsToEncode;
+    private final byte[] replacement;
+
+    /**
+     * True if the charset is UTF-8, in which case unsafe chars are converted to bytes directly rather than via a
+     * CharsetEncoder.
+     */
+    private final boolean utf8;
+
+    /**
+     * Char to byte mappings if the charset is single-byte (e.g. ISO-8859-1), in which case unsafe chars are converted
+     * to bytes with a table lookup rather than via a CharsetEncoder. Null otherwise.
+     */
+    @Nullable
+    private final SingleByteCharsetTable singleByteTable;
+
+    /**
+     * True if unsafe spaces are output as '+' rather than "%20", as in application/x-www-form-urlencoded.
+     */
+    private final boolean spaceAsPlus;
+
+    /**
+     * A CharsetEncoder (and its buffers) for each thread, for charsets that aren't converted directly. Null for UTF-8
+     * and single-byte charsets.
+     */
+    @Nullable
+    private final ThreadLocal<CharsetEncoderState> charsetEncoderState;
+
+    /**
+     * A PercentDecoder (and its buffers) for each thread, used to decode non-canonical input when normalizing. Each
+     * thread's decoder is created the first time that thread normalizes such input.
+     */
+    private final ThreadLocal<PercentDecoder> percentDecoder;
 
     /**
      * @param safeChars      the set of chars to NOT encode, stored as a bitset with the int positions corresponding to
-     *                       those chars set to true. Treated as read only.
-     * @param charsetEncoder charset encoder to encode characters with. Make sure to not re-use CharsetEncoder instances
-     *                       across threads.
+     *                       those chars set to true. The bitset is copied, so later changes to it have no effect.
+     * @param charsetEncoder charset encoder to encode characters with. It is only used as a template: its charset,
+     *                       error actions and replacement are read at construction time, and any encoding that needs a
+     *                       CharsetEncoder uses a per-thread copy, so the instance is never used directly.
+     * @see PercentEncoder#PercentEncoder(SafeCharSet, CharsetEncoder)
      */
     public PercentEncoder(@Nonnull BitSet safeChars, @Nonnull CharsetEncoder charsetEncoder) {
+        this(SafeCharSet.of(safeChars), charsetEncoder);
+    }
+
+    /**
+     * @param safeChars      the set of chars to NOT encode
+     * @param charsetEncoder charset encoder to encode characters with. It is only used as a template: its charset,
+     *                       error actions and replacement are read at construction time, and any encoding that needs a
+     *                       CharsetEncoder uses a per-thread copy, so the instance is never used directly.
+     */
+    public PercentEncoder(@Nonnull SafeCharSet safeChars, @Nonnull CharsetEncoder charsetEncoder) {
+        this(safeChars, charsetEncoder, false);
+    }
+
+    /**
+     * @param safeChars      the set of chars to NOT encode
+     * @param charsetEncoder charset encoder to encode characters with, used only as a template as in {@link
+     *                       PercentEncoder#PercentEncoder(SafeCharSet, CharsetEncoder)}
+     * @param spaceAsPlus    true to output a space as '+' rather than "%20", as application/x-www-form-urlencoded
+     *                       does. This has no effect if space is a safe char.
+     */
+    public PercentEncoder(@Nonnull SafeCharSet safeChars, @Nonnull CharsetEncoder charsetEncoder,
+        boolean spaceAsPlus) {
         this.safeChars = safeChars;
-        this.encoder = charsetEncoder;
+        this.spaceAsPlus = spaceAsPlus;
 
-        // why is this a float? sigh.
-        int maxBytesPerChar = 1 + (int) encoder.maxBytesPerChar();
-        // need to handle surrogate pairs, so need to be able to handle 2 chars worth of stuff at once
-        encodedBytes = ByteBuffer.allocate(maxBytesPerChar * 2);
-        unsafeCharsToEncode = CharBuffer.allocate(2);
+        charset = charsetEncoder.charset();
+        malformedInputAction = charsetEncoder.malformedInputAction();
+        unmappableCharacterAction = charsetEncoder.unmappableCharacterAction();
+        replacement = charsetEncoder.replacement();
+
+        utf8 = charset.equals(UTF_8);
+        singleByteTable = utf8 ? null : SingleByteCharsetTable.forCharset(charset);
+        if (utf8 || singleByteTable != null) {
+            charsetEncoderState = null;
+        } else {
+            charsetEncoderState = ThreadLocal.withInitial(() -> new CharsetEncoderState(charset.newEncoder()
+                    .onMalformedInput(malformedInputAction)
+                    .onUnmappableCharacter(unmappableCharacterAction)
+                    .replaceWith(replacement)));
+        }
+        percentDecoder = ThreadLocal.withInitial(this::newPercentDecoder);
+    }
+
+    /**
+     * @return the set of chars that this encoder does not encode
+     */
+    @Nonnull
+    public SafeCharSet getSafeChars() {
+        return safeChars;
     }
 
     /**
@@ -65,46 +160,74 @@ public final class PercentEncoder {
      */
     public void encode(@Nonnull CharSequence input, @Nonnull PercentEncoderOutputHandler handler) throws
         MalformedInputException, UnmappableCharacterException {
+        encode(input, 0, handler);
+    }
+
+    /**
+     * Encode the input, starting at the specified index, and pass output chars to a handler.
+     *
+     * @param input   input string
+     * @param start   index of the first char to encode
+     * @param handler handler to call on each output character
+     */
+    private void encode(CharSequence input, int start, PercentEncoderOutputHandler handler) throws
+        MalformedInputException, UnmappableCharacterException {
 
-        for (int i = 0; i < input.length(); i++) {
+        CharsetEncoderState state = null;
+        int length = input.length();
+        int i = start;
+        while (i < length) {
+            // find the end of the run of safe chars starting at i so the whole run can be output in one call
+            int runEnd = i;
+            while (runEnd < length && safeChars.contains(input.charAt(runEnd))) {
+                runEnd++;
+            }
 
-            char c = input.charAt(i);
+            if (runEnd > i) {
+                handler.onOutputChars(input, i, runEnd);
+                i = runEnd;
+                if (i == length) {
+                    break;
+                }
+            }
 
-            if (safeChars.get(c)) {
-                handler.onOutputChar(c);
+            // not a safe char
+            char c = input.charAt(i);
+            if (c == ' ' && spaceAsPlus) {
+                handler.onOutputChar('+');
+                i++;
                 continue;
             }
 
-            // not a safe char
-            unsafeCharsToEncode.clear();
-            unsafeCharsToEncode.append(c);
-            if (isHighSurrogate(c)) {
-                if (input.length() > i + 1) {
-                    // get the low surrogate as well
-                    char lowSurrogate = input.charAt(i + 1);
-                    if (isLowSurrogate(lowSurrogate)) {
-                        unsafeCharsToEncode.append(lowSurrogate);
-                        i++;
-                    } else {
-                        throw new IllegalArgumentException(
-                            "Invalid UTF-16: Char " + (i) + " is a high surrogate (\\u" + Integer
-                                .toHexString(c) + "), but char " + (i + 1) + " is not a low surrogate (\\u" + Integer
-                                .toHexString(lowSurrogate) + ")");
-                    }
-                } else {
-                    throw new IllegalArgumentException(
-                        "Invalid UTF-16: The last character in the input string was a high surrogate (\\u" + Integer
-                            .toHexString(c) + ")");
+            char lowSurrogate = isHighSurrogate(c) ? lowSurrogateAfter(input, i) : 0;
+
+            if (utf8) {
+                encodeUtf8(lowSurrogate == 0 ? c : toCodePoint(c, lowSurrogate), handler);
+            } else if (singleByteTable != null) {
+                encodeSingleByte(c, lowSurrogate, handler);
+            } else {
+                if (state == null) {
+                    state = charsetEncoderState.get();
+                }
+                state.unsafeCharsToEncode.clear();
+                state.unsafeCharsToEncode.append(c);
+                if (lowSurrogate != 0) {
+                    state.unsafeCharsToEncode.append(lowSurrogate);
                 }
+
+                flushUnsafeCharBuffer(state, handler);
             }
 
-            flushUnsafeCharBuffer(handler);
+            // skip the low surrogate as well, if any
+            i += lowSurrogate == 0 ? 1 : 2;
         }
     }
 
     /**
      * Encode the input and return the resulting text as a String.
      *
+     * If no chars need to be encoded, no copy is made: a String input is returned as is.
+     *
      * @param input input string
      * @return the input string with every character that's not in safeChars turned into its byte representation via the
      * instance's encoder and then percent-encoded
@@ -114,21 +237,533 @@ public final class PercentEncoder {
      */
     @Nonnull
     public String encode(@Nonnull CharSequence input) throws MalformedInputException, UnmappableCharacterException {
-        stringHandler.reset();
-        stringHandler.ensureCapacity(input.length());
-        encode(input, stringHandler);
-        return stringHandler.getContents();
+        int firstUnsafe = 0;
+        int length = input.length();
+        while (firstUnsafe < length && safeChars.contains(input.charAt(firstUnsafe))) {
+            firstUnsafe++;
+        }
+
+        if (firstUnsafe == length) {
+            // String.toString() returns the same instance
+            return input.toString();
+        }
+
+        StringBuilder buf = new StringBuilder(utf8 || singleByteTable != null ? encodedLength(input) : length);
+        buf.append(input, 0, firstUnsafe);
+        encode(input, firstUnsafe, new StringBuilderPercentEncoderOutputHandler(buf));
+        return buf.toString();
+    }
+
+    /**
+     * Encode the input and append the resulting text to a StringBuilder. This avoids creating an intermediate String
+     * when the encoded text is just one part of a larger string.
+     *
+     * @param input  input string
+     * @param output StringBuilder to append the encoded input to
+     * @throws MalformedInputException      if encoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if encoder is configured to report errors and an unmappable character is
+     *                                      detected
+     */
+    public void encodeTo(@Nonnull CharSequence input, @Nonnull StringBuilder output) throws MalformedInputException,
+        UnmappableCharacterException {
+        encode(input, new StringBuilderPercentEncoderOutputHandler(output));
+    }
+
+    /**
+     * Encode the input and append the resulting text to an Appendable, e.g. a Writer.
+     *
+     * @param input  input string
+     * @param output Appendable to append the encoded input to
+     * @throws MalformedInputException      if encoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if encoder is configured to report errors and an unmappable character is
+     *                                      detected
+     * @throws IOException                  if appending to output fails
+     */
+    public void encodeTo(@Nonnull CharSequence input, @Nonnull Appendable output) throws IOException {
+        if (output instanceof StringBuilder) {
+            encodeTo(input, (StringBuilder) output);
+            return;
+        }
+
+        try {
+            encode(input, new AppendablePercentEncoderOutputHandler(output));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Encode the input as {@link PercentEncoder#encode(CharSequence)} does, splitting large inputs into chunks that
+     * are encoded in parallel on the pool. Chunks never split a surrogate pair, so the output is the same as encoding
+     * the input all at once. Inputs shorter than about a million chars are encoded on the calling thread.
+     *
+     * @param input input string
+     * @param pool  pool to encode chunks on
+     * @return the same string that {@link PercentEncoder#encode(CharSequence)} would return for the input
+     * @throws MalformedInputException      if encoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if encoder is configured to report errors and an unmappable character is
+     *                                      detected
+     */
+    @Nonnull
+    public String encodeParallel(@Nonnull CharSequence input, @Nonnull ForkJoinPool pool) throws
+        MalformedInputException, UnmappableCharacterException {
+        return encodeParallel(input, pool, ParallelChunks.DEFAULT_THRESHOLD, ParallelChunks.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param threshold inputs shorter than this are encoded on the calling thread
+     * @param chunkSize minimum number of chars per chunk
+     */
+    @Nonnull
+    String encodeParallel(@Nonnull CharSequence input, @Nonnull ForkJoinPool pool, int threshold, int chunkSize)
+        throws MalformedInputException, UnmappableCharacterException {
+        if (input.length() < threshold || pool.getParallelism() == 1) {
+            return encode(input);
+        }
+
+        // a String can't change while chunks are being encoded
+        String inputString = input.toString();
+        int[] boundaries = ParallelChunks.boundaries(inputString.length(), chunkSize,
+            i -> !(isHighSurrogate(inputString.charAt(i - 1)) && isLowSurrogate(inputString.charAt(i))));
+        if (boundaries.length == 2) {
+            return encode(inputString);
+        }
+
+        try {
+            return ParallelChunks.convert(pool, boundaries, (start, end) -> encode(inputString.substring(start, end)));
+        } catch (RuntimeException e) {
+            // encode sequentially to throw the same exception as encode() would
+            return encode(inputString);
+        }
+    }
+
+    /**
+     * Encode all the chars that can be read from input and write the resulting text to output, using buffers of a
+     * fixed size no matter how long the input is. Surrogate pairs that are split across reads are encoded as a pair.
+     *
+     * Neither input nor output are closed or flushed.
+     *
+     * @param input  input to encode
+     * @param output where to write the encoded input
+     * @throws MalformedInputException      if encoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if encoder is configured to report errors and an unmappable character is
+     *                                      detected
+     * @throws IOException                  if reading from input or writing to output fails
+     */
+    public void encode(@Nonnull Reader input, @Nonnull Writer output) throws IOException {
+        WriterPercentEncoderOutputHandler handler = new WriterPercentEncoderOutputHandler(output, STREAM_BUFFER_SIZE);
+        try {
+            encodeChunks(input, handler);
+            handler.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Encode all the chars that can be read from input and write the resulting text to output as US-ASCII bytes, using
+     * buffers of a fixed size no matter how long the input is. Surrogate pairs that are split across reads are encoded
+     * as a pair.
+     *
+     * Neither input nor output are closed.
+     *
+     * @param input  input to encode
+     * @param output blocking channel to write the encoded input to
+     * @throws MalformedInputException      if encoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if encoder is configured to report errors and an unmappable character is
+     *                                      detected
+     * @throws IllegalArgumentException     if the safe chars include non-ASCII chars and one of them is output
+     * @throws IOException                  if reading from input or writing to output fails
+     */
+    public void encode(@Nonnull Reader input, @Nonnull WritableByteChannel output) throws IOException {
+        WritableByteChannelPercentEncoderOutputHandler handler =
+            new WritableByteChannelPercentEncoderOutputHandler(output, STREAM_BUFFER_SIZE);
+        try {
+            encodeChunks(input, handler);
+            handler.flush();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Read input a chunk at a time and encode each chunk to the handler.
+     *
+     * @param input   input to encode
+     * @param handler handler to call on each output character
+     */
+    private void encodeChunks(Reader input, PercentEncoderOutputHandler handler) throws IOException {
+        char[] chunk = new char[STREAM_BUFFER_SIZE];
+        // number of chars at the start of chunk that were held back from the previous chunk
+        int carried = 0;
+        int read;
+        while ((read = input.read(chunk, carried, chunk.length - carried)) != -1) {
+            int end = carried + read;
+            // the low surrogate of a pair may not have been read yet, so hold a trailing high surrogate back
+            int encodeEnd = end > 0 && isHighSurrogate(chunk[end - 1]) ? end - 1 : end;
+            encode(CharBuffer.wrap(chunk, 0, encodeEnd), handler);
+
+            carried = end - encodeEnd;
+            if (carried > 0) {
+                chunk[0] = chunk[end - 1];
+            }
+        }
+
+        if (carried > 0) {
+            // the input ended with a high surrogate, which encode() will reject
+            encode(CharBuffer.wrap(chunk, 0, carried), handler);
+        }
+    }
+
+    /**
+     * Calculate the exact length of the encoded form of the input, without producing the encoded form. This allows
+     * output buffers to be sized exactly.
+     *
+     * @param input input string
+     * @return the length of the string that encode() would produce for the input
+     * @throws MalformedInputException      if encoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if encoder is configured to report errors and an unmappable character is
+     *                                      detected
+     */
+    public int encodedLength(@Nonnull CharSequence input) throws MalformedInputException,
+        UnmappableCharacterException {
+        if (singleByteTable != null) {
+            return singleByteEncodedLength(input);
+        }
+        if (!utf8) {
+            // the number of bytes per char varies too much across charsets to do anything but encode it
+            LengthCountingOutputHandler counter = new LengthCountingOutputHandler();
+            encode(input, counter);
+            return counter.length;
+        }
+
+        int encodedLength = 0;
+        int length = input.length();
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (safeChars.contains(c) || (c == ' ' && spaceAsPlus)) {
+                encodedLength++;
+            } else if (c < 0x80) {
+                encodedLength += 3;
+            } else if (c < 0x800) {
+                encodedLength += 6;
+            } else if (isHighSurrogate(c)) {
+                lowSurrogateAfter(input, i);
+                encodedLength += 12;
+                i++;
+            } else if (isLowSurrogate(c)) {
+                encodedLength += unencodableLength(true, 1);
+            } else {
+                encodedLength += 9;
+            }
+        }
+
+        return encodedLength;
+    }
+
+    /**
+     * Check if the input is exactly what this encoder outputs for some input, i.e. if encoding the decoded input would
+     * give back the same text. That means that every char is either safe or part of a %-triple (or a '+' for a space,
+     * if spaces are output as '+'), every %-triple uses uppercase hex digits, and the %-triples are a valid encoding of
+     * chars that are not safe. Text with a '%' that isn't followed by two hex digits is never canonical.
+     *
+     * This is a single pass over the input that doesn't allocate, except for charsets other than UTF-8 and single-byte
+     * charsets, which are checked by decoding and re-encoding.
+     *
+     * @param input text that may already be percent-encoded
+     * @return true if input is the canonical encoded form of some text
+     * @see PercentEncoder#normalize(CharSequence)
+     */
+    public boolean isEncoded(@Nonnull CharSequence input) {
+        if (!utf8 && singleByteTable == null) {
+            return isEncodedViaCharset(input);
+        }
+
+        int length = input.length();
+        int i = 0;
+        while (i < length) {
+            char c = input.charAt(i);
+            if (c != '%') {
+                if (!safeChars.contains(c) && !(c == '+' && spaceAsPlus)) {
+                    return false;
+                }
+                i++;
+                continue;
+            }
+
+            int b = encodedByteAt(input, i);
+            if (b == -1) {
+                return false;
+            }
+
+            if (singleByteTable != null) {
+                int decoded = singleByteTable.decode((byte) b);
+                if (decoded < 0 || !isOutputEncoded((char) decoded) || singleByteTable.encode((char) decoded) != b) {
+                    return false;
+                }
+                i += 3;
+                continue;
+            }
+
+            int byteCount;
+            int codePoint;
+            int minCodePoint;
+            if (b < 0x80) {
+                byteCount = 1;
+                codePoint = b;
+                minCodePoint = 0;
+            } else if ((b & 0xE0) == 0xC0) {
+                byteCount = 2;
+                codePoint = b & 0x1F;
+                minCodePoint = 0x80;
+            } else if ((b & 0xF0) == 0xE0) {
+                byteCount = 3;
+                codePoint = b & 0x0F;
+                minCodePoint = 0x800;
+            } else if ((b & 0xF8) == 0xF0) {
+                byteCount = 4;
+                codePoint = b & 0x07;
+                minCodePoint = Character.MIN_SUPPLEMENTARY_CODE_POINT;
+            } else {
+                return false;
+            }
+
+            for (int k = 1; k < byteCount; k++) {
+                int continuation = encodedByteAt(input, i + 3 * k);
+                if (continuation == -1 || (continuation & 0xC0) != 0x80) {
+                    return false;
+                }
+                codePoint = codePoint << 6 | continuation & 0x3F;
+            }
+
+            // overlong encodings, surrogates and code points past the end of Unicode are never output
+            if (codePoint < minCodePoint || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                return false;
+            }
+            // a safe high surrogate would have been output as is
+            char firstChar = byteCount == 4 ? Character.highSurrogate(codePoint) : (char) codePoint;
+            if (!isOutputEncoded(firstChar)) {
+                return false;
+            }
+
+            i += 3 * byteCount;
+        }
+
+        return true;
+    }
+
+    /**
+     * Return the canonical encoded form of text that is meant to be percent-encoded already, but may not be, e.g. a
+     * link from another service. If {@link PercentEncoder#isEncoded(CharSequence)} is true for the input, it is
+     * returned as is without a copy (for String input). Otherwise it is decoded, passing invalid %-sequences through
+     * literally as {@link PercentDecoder#decodeLenient(CharSequence)} does, and re-encoded: "a b%zz%e9" becomes
+     * "a%20b%25zz%E9" with a UTF-8 path encoder.
+     *
+     * @param input text that may already be percent-encoded
+     * @return the canonical encoded form of the input
+     * @throws MalformedInputException      if encoder is configured to report errors and the input has %-triples that
+     *                                      are malformed in the charset, or malformed input is detected when
+     *                                      re-encoding
+     * @throws UnmappableCharacterException if encoder is configured to report errors and the input has %-triples that
+     *                                      are unmappable in the charset, or an unmappable character is detected when
+     *                                      re-encoding
+     */
+    @Nonnull
+    public String normalize(@Nonnull CharSequence input) throws MalformedInputException,
+        UnmappableCharacterException {
+        if (isEncoded(input)) {
+            return input.toString();
+        }
+        return encode(percentDecoder.get().decodeLenient(input));
+    }
+
+    /**
+     * Append the canonical encoded form of text that is meant to be percent-encoded already to a StringBuilder. Input
+     * that is already canonical is appended as is.
+     *
+     * @param input  text that may already be percent-encoded
+     * @param output StringBuilder to append the canonical encoded form of the input to
+     * @throws MalformedInputException      if encoder is configured to report errors and malformed input is detected
+     * @throws UnmappableCharacterException if encoder is configured to report errors and an unmappable character is
+     *                                      detected
+     * @see PercentEncoder#normalize(CharSequence)
+     */
+    public void normalizeTo(@Nonnull CharSequence input, @Nonnull StringBuilder output) throws MalformedInputException,
+        UnmappableCharacterException {
+        if (isEncoded(input)) {
+            output.append(input);
+            return;
+        }
+        encodeTo(percentDecoder.get().decodeLenient(input), output);
+    }
+
+    /**
+     * encodedLength() for single-byte charsets
+     */
+    private int singleByteEncodedLength(CharSequence input) throws MalformedInputException,
+        UnmappableCharacterException {
+        int encodedLength = 0;
+        int length = input.length();
+        for (int i = 0; i < length; i++) {
+            char c = input.charAt(i);
+            if (safeChars.contains(c) || (c == ' ' && spaceAsPlus)) {
+                encodedLength++;
+            } else if (isHighSurrogate(c)) {
+                lowSurrogateAfter(input, i);
+                encodedLength += unencodableLength(false, 2);
+                i++;
+            } else if (isLowSurrogate(c)) {
+                encodedLength += unencodableLength(true, 1);
+            } else {
+                int b = singleByteTable.encode(c);
+                encodedLength += b >= 0 ? 3 : unencodableLength(b == SingleByteCharsetTable.MALFORMED, 1);
+            }
+        }
+
+        return encodedLength;
+    }
+
+    /**
+     * @param malformed true if the input is malformed, false if it is unmappable
+     * @param length    number of input chars that can't be encoded
+     * @return the number of output chars that the configured error action produces
+     * @throws MalformedInputException      if the input is malformed and the encoder is configured to report that
+     * @throws UnmappableCharacterException if the input is unmappable and the encoder is configured to report that
+     */
+    private int unencodableLength(boolean malformed, int length) throws MalformedInputException,
+        UnmappableCharacterException {
+        CodingErrorAction action = checkUnencodable(malformed, length);
+        return action == CodingErrorAction.REPLACE ? 3 * replacement.length : 0;
+    }
+
+    /**
+     * @param malformed true if the input is malformed, false if it is unmappable
+     * @param length    number of input chars that can't be encoded
+     * @return the action to take for the input, which is never REPORT
+     * @throws MalformedInputException      if the input is malformed and the encoder is configured to report that
+     * @throws UnmappableCharacterException if the input is unmappable and the encoder is configured to report that
+     */
+    private CodingErrorAction checkUnencodable(boolean malformed, int length) throws MalformedInputException,
+        UnmappableCharacterException {
+        CodingErrorAction action = malformed ? malformedInputAction : unmappableCharacterAction;
+        if (action == CodingErrorAction.REPORT) {
+            if (malformed) {
+                throw new MalformedInputException(length);
+            }
+            throw new UnmappableCharacterException(length);
+        }
+        return action;
+    }
+
+    /**
+     * Output what the configured error action produces for input that can't be encoded.
+     *
+     * @param malformed true if the input is malformed, false if it is unmappable
+     * @param length    number of input chars that can't be encoded
+     * @param handler   where the replacement bytes, if any, will be written
+     */
+    private void outputUnencodable(boolean malformed, int length, PercentEncoderOutputHandler handler) throws
+        MalformedInputException, UnmappableCharacterException {
+        if (checkUnencodable(malformed, length) == CodingErrorAction.REPLACE) {
+            for (byte b : replacement) {
+                outputEncodedByte(b, handler);
+            }
+        }
+    }
+
+    /**
+     * @param input input string
+     * @param i     index of a high surrogate in input
+     * @return the low surrogate following the high surrogate
+     * @throws IllegalArgumentException if the high surrogate is not followed by a low surrogate
+     */
+    private static char lowSurrogateAfter(CharSequence input, int i) {
+        char c = input.charAt(i);
+        if (input.length() > i + 1) {
+            char lowSurrogate = input.charAt(i + 1);
+            if (!isLowSurrogate(lowSurrogate)) {
+                throw new IllegalArgumentException(
+                    "Invalid UTF-16: Char " + (i) + " is a high surrogate (\\u" + Integer
+                        .toHexString(c) + "), but char " + (i + 1) + " is not a low surrogate (\\u" + Integer
+                        .toHexString(lowSurrogate) + ")");
+            }
+            return lowSurrogate;
+        }
+
+        throw new IllegalArgumentException(
+            "Invalid UTF-16: The last character in the input string was a high surrogate (\\u" + Integer
+                .toHexString(c) + ")");
     }
 
     /**
-     * Encode unsafeCharsToEncode to bytes as per charsetEncoder, then percent-encode those bytes into output.
+     * Convert a code point to UTF-8 and percent-encode the resulting bytes into output.
+     *
+     * @param codePoint a code point, or a lone low surrogate (which is malformed)
+     * @param handler   where the percent-encoded bytes will be written
+     * @throws MalformedInputException if codePoint is a lone surrogate and the encoder was configured to report errors
+     */
+    private void encodeUtf8(int codePoint, PercentEncoderOutputHandler handler) throws MalformedInputException,
+        UnmappableCharacterException {
+        if (codePoint < 0x80) {
+            outputEncodedByte(codePoint, handler);
+        } else if (codePoint < 0x800) {
+            outputEncodedByte(0xC0 | codePoint >> 6, handler);
+            outputEncodedByte(0x80 | codePoint & 0x3F, handler);
+        } else if (codePoint >= 0x10000) {
+            outputEncodedByte(0xF0 | codePoint >> 18, handler);
+            outputEncodedByte(0x80 | codePoint >> 12 & 0x3F, handler);
+            outputEncodedByte(0x80 | codePoint >> 6 & 0x3F, handler);
+            outputEncodedByte(0x80 | codePoint & 0x3F, handler);
+        } else if (isSurrogate((char) codePoint)) {
+            // high surrogates are always paired by now, so this is a lone low surrogate
+            outputUnencodable(true, 1, handler);
+        } else {
+            outputEncodedByte(0xE0 | codePoint >> 12, handler);
+            outputEncodedByte(0x80 | codePoint >> 6 & 0x3F, handler);
+            outputEncodedByte(0x80 | codePoint & 0x3F, handler);
+        }
+    }
+
+    /**
+     * Convert a char (or surrogate pair) to a byte in a single-byte charset and percent-encode it into output.
+     *
+     * @param c            an unsafe char
+     * @param lowSurrogate the low surrogate following c if c is a high surrogate, otherwise 0
+     * @param handler      where the percent-encoded byte will be written
+     */
+    private void encodeSingleByte(char c, char lowSurrogate, PercentEncoderOutputHandler handler) throws
+        MalformedInputException, UnmappableCharacterException {
+        if (lowSurrogate != 0) {
+            // single-byte charsets can't represent supplementary code points
+            outputUnencodable(false, 2, handler);
+        } else if (isLowSurrogate(c)) {
+            outputUnencodable(true, 1, handler);
+        } else {
+            int b = singleByteTable.encode(c);
+            if (b >= 0) {
+                outputEncodedByte(b, handler);
+            } else {
+                outputUnencodable(b == SingleByteCharsetTable.MALFORMED, 1, handler);
+            }
+        }
+    }
+
+    /**
+     * Encode the state's unsafeCharsToEncode to bytes as per its charsetEncoder, then percent-encode those bytes into
+     * output.
      *
      * Side effects: unsafeCharsToEncode will be read from and cleared. encodedBytes will be cleared and written to.
      *
+     * @param state   the current thread's encoder state
      * @param handler where the encoded versions of the contents of unsafeCharsToEncode will be written
      */
-    private void flushUnsafeCharBuffer(PercentEncoderOutputHandler handler) throws MalformedInputException,
-        UnmappableCharacterException {
+    private static void flushUnsafeCharBuffer(CharsetEncoderState state, PercentEncoderOutputHandler handler) throws
+        MalformedInputException, UnmappableCharacterException {
+        CharBuffer unsafeCharsToEncode = state.unsafeCharsToEncode;
+        ByteBuffer encodedBytes = state.encodedBytes;
+        CharsetEncoder encoder = state.encoder;
+
         // need to read from the char buffer, which was most recently written to
         unsafeCharsToEncode.flip();
 
@@ -144,12 +779,76 @@ public final class PercentEncoder {
         encodedBytes.flip();
 
         while (encodedBytes.hasRemaining()) {
-            byte b = encodedBytes.get();
+            outputEncodedByte(encodedBytes.get(), handler);
+        }
+    }
+
+    /**
+     * isEncoded() for charsets that are converted via a CharsetEncoder
+     */
+    private boolean isEncodedViaCharset(CharSequence input) {
+        // new decoders report errors by default
+        PercentDecoder decoder = new PercentDecoder(charset.newDecoder(), spaceAsPlus);
+        try {
+            return encode(decoder.decode(input)).contentEquals(input);
+        } catch (IllegalArgumentException | MalformedInputException | UnmappableCharacterException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param c a char
+     * @return true if c is output as one or more %-triples
+     */
+    private boolean isOutputEncoded(char c) {
+        return !safeChars.contains(c) && !(c == ' ' && spaceAsPlus);
+    }
+
+    /**
+     * @param input input text
+     * @param index index of a '%' that may start a %-triple
+     * @return the byte (0-255) of the %-triple at index, or -1 if there isn't a %-triple with uppercase hex digits
+     * there
+     */
+    private static int encodedByteAt(CharSequence input, int index) {
+        if (index + 2 >= input.length() || input.charAt(index) != '%') {
+            return -1;
+        }
 
-            handler.onOutputChar('%');
-            handler.onOutputChar(HEX_CODE[b >> 4 & 0xF]);
-            handler.onOutputChar(HEX_CODE[b & 0xF]);
+        int msBits = upperHexValue(input.charAt(index + 1));
+        int lsBits = upperHexValue(input.charAt(index + 2));
+        return msBits == -1 || lsBits == -1 ? -1 : msBits << 4 | lsBits;
+    }
+
+    /**
+     * @param c a char
+     * @return the value of c as an uppercase hex digit as output by this class, or -1 if it isn't one
+     */
+    private static int upperHexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
         }
+        return -1;
+    }
+
+    /**
+     * @return a decoder for this encoder's charset that handles errors as this encoder does
+     */
+    private PercentDecoder newPercentDecoder() {
+        return new PercentDecoder(charset.newDecoder()
+            .onMalformedInput(malformedInputAction)
+            .onUnmappableCharacter(unmappableCharacterAction), spaceAsPlus);
+    }
+
+    /**
+     * @param b       byte to percent-encode (only the low 8 bits are used)
+     * @param handler where the %XX triple will be written
+     */
+    private static void outputEncodedByte(int b, PercentEncoderOutputHandler handler) {
+        handler.onOutputTriple(HEX_CODE[b >> 4 & 0xF], HEX_CODE[b & 0xF]);
     }
 
     /**
@@ -169,4 +868,52 @@ public final class PercentEncoder {
             throw new UnmappableCharacterException(result.length());
         }
     }
+
+    /**
+     * A CharsetEncoder and the buffers used with it, which must not be shared across threads.
+     */
+    @NotThreadSafe
+    private static final class CharsetEncoderState {
+        private final CharsetEncoder encoder;
+        private final ByteBuffer encodedBytes;
+        private final CharBuffer unsafeCharsToEncode;
+
+        CharsetEncoderState(CharsetEncoder encoder) {
+            this.encoder = encoder;
+
+            // why is this a float? sigh.
+            int maxBytesPerChar = 1 + (int) encoder.maxBytesPerChar();
+            // need to handle surrogate pairs, so need to be able to handle 2 chars worth of stuff at once
+            encodedBytes = ByteBuffer.allocate(maxBytesPerChar * 2);
+            unsafeCharsToEncode = CharBuffer.allocate(2);
+        }
+    }
+
+    /**
+     * Counts output chars without storing them.
+     */
+    @NotThreadSafe
+    private static final class LengthCountingOutputHandler implements PercentEncoderOutputHandler {
+        private int length;
+
+        @Override
+        public void onOutputChar(char c) {
+            length++;
+        }
+
+        @Override
+        public void onOutputChars(@Nonnull CharSequence cs, int start, int end) {
+            length += end - start;
+        }
+
+        @Override
+        public void onOutputChars(@Nonnull char[] chars, int offset, int length) {
+            this.length += length;
+        }
+
+        @Override
+        public void onOutputTriple(char highHexDigit, char lowHexDigit) {
+            length += 3;
+        }
+    }
 }
@@ -1,9 +1,14 @@
 package com.palominolabs.http.url;
 
+import javax.annotation.Nonnull;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
  * A callback used during percent encoding.
+ *
+ * Only {@link PercentEncoderOutputHandler#onOutputChar(char)} must be implemented. PercentEncoder calls the bulk
+ * methods wherever it can, so implementations that can handle many chars at once (e.g. by appending to a buffer)
+ * should override them as well.
  */
 @NotThreadSafe
 public interface PercentEncoderOutputHandler {
@@ -14,4 +19,45 @@ public interface PercentEncoderOutputHandler {
      *          percent-hex-encoded triple, e.g. "%FF".
      */
     void onOutputChar(char c);
+
+    /**
+     * Called on a run of output characters. Equivalent to calling {@link
+     * PercentEncoderOutputHandler#onOutputChar(char)} for each char in the range.
+     *
+     * @param cs    char sequence holding the output chars
+     * @param start index of the first output char
+     * @param end   index after the last output char
+     */
+    default void onOutputChars(@Nonnull CharSequence cs, int start, int end) {
+        for (int i = start; i < end; i++) {
+            onOutputChar(cs.charAt(i));
+        }
+    }
+
+    /**
+     * Called on a run of output characters. Equivalent to calling {@link
+     * PercentEncoderOutputHandler#onOutputChar(char)} for each char in the range.
+     *
+     * @param chars  array holding the output chars
+     * @param offset index of the first output char
+     * @param length number of output chars
+     */
+    default void onOutputChars(@Nonnull char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            onOutputChar(chars[i]);
+        }
+    }
+
+    /**
+     * Called on each percent-hex-encoded triple, e.g. "%FF". Equivalent to calling {@link
+     * PercentEncoderOutputHandler#onOutputChar(char)} with '%', then each hex digit.
+     *
+     * @param highHexDigit hex digit for the high 4 bits of the encoded byte
+     * @param lowHexDigit  hex digit for the low 4 bits of the encoded byte
+     */
+    default void onOutputTriple(char highHexDigit, char lowHexDigit) {
+        onOutputChar('%');
+        onOutputChar(highHexDigit);
+        onOutputChar(lowHexDigit);
+    }
 }
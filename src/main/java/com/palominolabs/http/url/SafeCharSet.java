@@ -0,0 +1,190 @@
+package com.palominolabs.http.url;
+
+import java.util.BitSet;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An immutable set of chars that don't need to be percent-encoded.
+ *
+ * ASCII chars are stored as two 64-bit masks so that checking membership is just a shift and a mask. Non-ASCII chars
+ * are supported, but are looked up in a (private, never modified) BitSet.
+ *
+ * See {@link UrlPercentEncoders} for the sets used for each URL component, which can be used as a starting point for
+ * custom sets via {@link SafeCharSet#toBuilder()}.
+ */
+@Immutable
+public final class SafeCharSet {
+
+    /**
+     * chars 0-63
+     */
+    private final long lowMask;
+    /**
+     * chars 64-127
+     */
+    private final long highMask;
+    /**
+     * chars 128 and up, or null if there are none
+     */
+    @Nullable
+    private final BitSet nonAscii;
+
+    private SafeCharSet(long lowMask, long highMask, @Nullable BitSet nonAscii) {
+        this.lowMask = lowMask;
+        this.highMask = highMask;
+        this.nonAscii = nonAscii;
+    }
+
+    /**
+     * @param bitSet bit set with the int positions corresponding to the safe chars set to true. It is copied, so later
+     *               changes to it will not affect the returned set.
+     * @return a set containing the chars set in bitSet
+     */
+    @Nonnull
+    public static SafeCharSet of(@Nonnull BitSet bitSet) {
+        return new Builder(bitSet).build();
+    }
+
+    /**
+     * @return a builder for a new, initially empty, set
+     */
+    @Nonnull
+    public static Builder builder() {
+        return new Builder(new BitSet());
+    }
+
+    /**
+     * @return a builder initialized with the contents of this set
+     */
+    @Nonnull
+    public Builder toBuilder() {
+        return new Builder(toBitSet());
+    }
+
+    /**
+     * @param c char to check
+     * @return true if c is in the set
+     */
+    public boolean contains(char c) {
+        if (c < 64) {
+            return (lowMask & 1L << c) != 0;
+        }
+        if (c < 128) {
+            // shift distance is taken mod 64
+            return (highMask & 1L << c) != 0;
+        }
+        return nonAscii != null && nonAscii.get(c);
+    }
+
+    /**
+     * @return a new BitSet with the int positions corresponding to the chars in this set set to true
+     */
+    @Nonnull
+    public BitSet toBitSet() {
+        BitSet bitSet = nonAscii == null ? new BitSet() : (BitSet) nonAscii.clone();
+        for (int i = 0; i < 128; i++) {
+            if (contains((char) i)) {
+                bitSet.set(i);
+            }
+        }
+        return bitSet;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SafeCharSet)) {
+            return false;
+        }
+        SafeCharSet that = (SafeCharSet) o;
+        return lowMask == that.lowMask && highMask == that.highMask
+            && (nonAscii == null ? that.nonAscii == null : nonAscii.equals(that.nonAscii));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(lowMask);
+        result = 31 * result + Long.hashCode(highMask);
+        result = 31 * result + (nonAscii == null ? 0 : nonAscii.hashCode());
+        return result;
+    }
+
+    /**
+     * Builder for SafeCharSet.
+     */
+    @NotThreadSafe
+    public static final class Builder {
+        private final BitSet bitSet;
+
+        private Builder(BitSet bitSet) {
+            this.bitSet = bitSet;
+        }
+
+        /**
+         * @param c char to add
+         * @return this
+         */
+        @Nonnull
+        public Builder add(char c) {
+            bitSet.set(c);
+            return this;
+        }
+
+        /**
+         * @param first first char to add
+         * @param last  last char to add (inclusive)
+         * @return this
+         */
+        @Nonnull
+        public Builder addRange(char first, char last) {
+            bitSet.set(first, last + 1);
+            return this;
+        }
+
+        /**
+         * @param chars chars to add
+         * @return this
+         */
+        @Nonnull
+        public Builder addAll(@Nonnull SafeCharSet chars) {
+            bitSet.or(chars.toBitSet());
+            return this;
+        }
+
+        /**
+         * @param c char to remove
+         * @return this
+         */
+        @Nonnull
+        public Builder remove(char c) {
+            bitSet.clear(c);
+            return this;
+        }
+
+        /**
+         * @return a set containing the chars added so far
+         */
+        @Nonnull
+        public SafeCharSet build() {
+            long lowMask = 0;
+            long highMask = 0;
+            for (int i = bitSet.nextSetBit(0); i >= 0 && i < 128; i = bitSet.nextSetBit(i + 1)) {
+                if (i < 64) {
+                    lowMask |= 1L << i;
+                } else {
+                    highMask |= 1L << i;
+                }
+            }
+
+            BitSet nonAscii = (BitSet) bitSet.clone();
+            nonAscii.clear(0, 128);
+
+            return new SafeCharSet(lowMask, highMask, nonAscii.isEmpty() ? null : nonAscii);
+        }
+    }
+}
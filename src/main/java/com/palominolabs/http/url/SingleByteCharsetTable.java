@@ -0,0 +1,219 @@
+package com.palominolabs.http.url;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import static java.nio.charset.CodingErrorAction.REPORT;
+
+/**
+ * Precomputed char to byte and byte to char mappings for a charset that encodes every char as exactly one byte, e.g.
+ * ISO-8859-1 or windows-1252. This lets such charsets be converted with a table lookup rather than a CharsetEncoder
+ * or CharsetDecoder call per char.
+ *
+ * Tables are built by running every char and every byte through the charset's own encoder and decoder, so lookups give
+ * the same results as the charset, including which chars and bytes are malformed or unmappable.
+ */
+@Immutable
+final class SingleByteCharsetTable {
+
+    /**
+     * Lookup result for a char or byte that is malformed input for the charset
+     */
+    static final int MALFORMED = -1;
+    /**
+     * Lookup result for a char or byte that the charset can't map
+     */
+    static final int UNMAPPABLE = -2;
+
+    /**
+     * Tables are expensive to build, so each charset's table (or the absence of one) is built only once
+     */
+    private static final ConcurrentMap<Charset, Optional<SingleByteCharsetTable>> TABLES = new ConcurrentHashMap<>();
+
+    /**
+     * byte (0-255), UNMAPPABLE or MALFORMED for each char below 256
+     */
+    private final int[] lowCharToByte;
+    /**
+     * Sorted chars at or above 256 that the charset can encode. Usually only a few dozen, if any.
+     */
+    private final char[] highChars;
+    /**
+     * byte (0-255) for the corresponding entry in highChars
+     */
+    private final byte[] highCharBytes;
+    /**
+     * char, UNMAPPABLE or MALFORMED for each byte
+     */
+    private final int[] byteToChar;
+
+    private SingleByteCharsetTable(int[] lowCharToByte, char[] highChars, byte[] highCharBytes, int[] byteToChar) {
+        this.lowCharToByte = lowCharToByte;
+        this.highChars = highChars;
+        this.highCharBytes = highCharBytes;
+        this.byteToChar = byteToChar;
+    }
+
+    /**
+     * @param charset a charset
+     * @return the table for the charset, or null if the charset doesn't map each char to one byte and vice versa
+     */
+    @Nullable
+    static SingleByteCharsetTable forCharset(@Nonnull Charset charset) {
+        return TABLES.computeIfAbsent(charset, c -> Optional.ofNullable(build(c))).orElse(null);
+    }
+
+    /**
+     * @param c a char that is not a surrogate
+     * @return the byte (0-255) for c, or UNMAPPABLE or MALFORMED
+     */
+    int encode(char c) {
+        if (c < lowCharToByte.length) {
+            return lowCharToByte[c];
+        }
+
+        int index = Arrays.binarySearch(highChars, c);
+        return index < 0 ? UNMAPPABLE : highCharBytes[index] & 0xFF;
+    }
+
+    /**
+     * @param b a byte
+     * @return the char for b, or UNMAPPABLE or MALFORMED
+     */
+    int decode(byte b) {
+        return byteToChar[b & 0xFF];
+    }
+
+    /**
+     * @param charset charset to build a table for
+     * @return a table, or null if the charset isn't suitable
+     */
+    @Nullable
+    private static SingleByteCharsetTable build(Charset charset) {
+        if (!charset.canEncode()) {
+            return null;
+        }
+
+        CharsetEncoder encoder = charset.newEncoder().onMalformedInput(REPORT).onUnmappableCharacter(REPORT);
+        CharsetDecoder decoder = charset.newDecoder().onMalformedInput(REPORT).onUnmappableCharacter(REPORT);
+        if (encoder.maxBytesPerChar() != 1.0f || decoder.maxCharsPerByte() != 1.0f) {
+            return null;
+        }
+
+        CharBuffer chars = CharBuffer.allocate(4);
+        ByteBuffer bytes = ByteBuffer.allocate(4);
+
+        // the per-char logic in PercentEncoder assumes that a lone surrogate is malformed and a valid surrogate pair
+        // is unmappable
+        if (encode(encoder, "\udc00", chars, bytes) != MALFORMED
+            || encode(encoder, "\ud800\udc00", chars, bytes) != UNMAPPABLE) {
+            return null;
+        }
+
+        int[] lowCharToByte = new int[256];
+        char[] highChars = new char[256];
+        byte[] highCharBytes = new byte[256];
+        int highCount = 0;
+
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (Character.isSurrogate((char) c)) {
+                continue;
+            }
+
+            int b = encode(encoder, String.valueOf((char) c), chars, bytes);
+            if (b == Integer.MIN_VALUE) {
+                return null;
+            }
+
+            if (c < lowCharToByte.length) {
+                lowCharToByte[c] = b;
+            } else if (b >= 0) {
+                if (highCount == highChars.length) {
+                    highChars = Arrays.copyOf(highChars, highCount * 2);
+                    highCharBytes = Arrays.copyOf(highCharBytes, highCount * 2);
+                }
+                // chars are visited in order, so highChars is sorted
+                highChars[highCount] = (char) c;
+                highCharBytes[highCount] = (byte) b;
+                highCount++;
+            }
+        }
+
+        int[] byteToChar = new int[256];
+        for (int b = 0; b < byteToChar.length; b++) {
+            int c = decode(decoder, (byte) b, chars, bytes);
+            if (c == Integer.MIN_VALUE) {
+                return null;
+            }
+            byteToChar[b] = c;
+        }
+
+        return new SingleByteCharsetTable(lowCharToByte, Arrays.copyOf(highChars, highCount),
+            Arrays.copyOf(highCharBytes, highCount), byteToChar);
+    }
+
+    /**
+     * @return the byte (0-255) that input encodes to, UNMAPPABLE or MALFORMED, or Integer.MIN_VALUE if the result is
+     * anything else (e.g. more than one byte)
+     */
+    private static int encode(CharsetEncoder encoder, String input, CharBuffer chars, ByteBuffer bytes) {
+        chars.clear();
+        chars.put(input).flip();
+        bytes.clear();
+
+        encoder.reset();
+        CoderResult result = encoder.encode(chars, bytes, true);
+        if (result.isUnderflow()) {
+            result = encoder.flush(bytes);
+        }
+
+        if (result.isUnderflow() && bytes.position() == 1) {
+            return bytes.get(0) & 0xFF;
+        }
+        if (result.isMalformed() && result.length() == input.length() && bytes.position() == 0) {
+            return MALFORMED;
+        }
+        if (result.isUnmappable() && result.length() == input.length() && bytes.position() == 0) {
+            return UNMAPPABLE;
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return the char that b decodes to, UNMAPPABLE or MALFORMED, or Integer.MIN_VALUE if the result is anything else
+     * (e.g. more than one char)
+     */
+    private static int decode(CharsetDecoder decoder, byte b, CharBuffer chars, ByteBuffer bytes) {
+        bytes.clear();
+        bytes.put(b).flip();
+        chars.clear();
+
+        decoder.reset();
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if (result.isUnderflow()) {
+            result = decoder.flush(chars);
+        }
+
+        if (result.isUnderflow() && chars.position() == 1) {
+            return chars.get(0);
+        }
+        if (result.isMalformed() && result.length() == 1 && chars.position() == 0) {
+            return MALFORMED;
+        }
+        if (result.isUnmappable() && result.length() == 1 && chars.position() == 0) {
+            return UNMAPPABLE;
+        }
+        return Integer.MIN_VALUE;
+    }
+}
@@ -18,6 +18,15 @@ public final class StringBuilderPercentEncoderOutputHandler implements PercentEn
         stringBuilder = new StringBuilder();
     }
 
+    /**
+     * Create a new handler that appends to an existing StringBuilder. Note that reset() will clear the StringBuilder.
+     *
+     * @param stringBuilder StringBuilder to append to
+     */
+    public StringBuilderPercentEncoderOutputHandler(@Nonnull StringBuilder stringBuilder) {
+        this.stringBuilder = stringBuilder;
+    }
+
     /**
      * @return A string containing the chars accumulated since the last call to reset()
      */
@@ -46,4 +55,19 @@ public final class StringBuilderPercentEncoderOutputHandler implements PercentEn
     public void onOutputChar(char c) {
         stringBuilder.append(c);
     }
+
+    @Override
+    public void onOutputChars(@Nonnull CharSequence cs, int start, int end) {
+        stringBuilder.append(cs, start, end);
+    }
+
+    @Override
+    public void onOutputChars(@Nonnull char[] chars, int offset, int length) {
+        stringBuilder.append(chars, offset, length);
+    }
+
+    @Override
+    public void onOutputTriple(char highHexDigit, char lowHexDigit) {
+        stringBuilder.append('%').append(highHexDigit).append(lowHexDigit);
+    }
 }
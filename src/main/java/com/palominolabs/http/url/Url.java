@@ -0,0 +1,410 @@
+package com.palominolabs.http.url;
+
+import java.nio.charset.CharacterCodingException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An immutable URL, as produced by {@link UrlBuilder#build()}. It holds the same components as a UrlBuilder, so it
+ * renders to the same string that the builder did, but it can be shared between threads and used as a map key.
+ *
+ * The URL string, the hash code and the list views of the components are each computed the first time they are
+ * needed and then reused. The with* methods return a new Url that shares the storage of every component they don't
+ * change with this one, so e.g. adding a query param doesn't copy the path segments.
+ *
+ * Two Urls are equal if all their components are equal.
+ */
+@Immutable
+public final class Url {
+
+    static final Param[] NO_PARAMS = new Param[0];
+
+    @Nonnull
+    private final String scheme;
+
+    @Nonnull
+    private final String host;
+
+    @Nullable
+    private final Integer port;
+
+    @Nonnull
+    private final PathSegment[] pathSegments;
+
+    @Nonnull
+    private final Param[] queryParams;
+
+    /**
+     * If this is non-null, queryParams must be empty.
+     */
+    @Nullable
+    private final String unstructuredQuery;
+
+    @Nullable
+    private final String fragment;
+
+    private final boolean forceTrailingSlash;
+
+    /*
+     * Lazily computed. These are racy single-checks, like String's hash: each value is either a primitive or only
+     * reachable through final fields, so a thread that sees a non-default value sees it fully built, and at worst a
+     * value is computed more than once.
+     */
+    @Nullable
+    private String urlString;
+    private int hash;
+    @Nullable
+    private List<PathSegment> pathSegmentList;
+    @Nullable
+    private List<Param> queryParamList;
+
+    Url(@Nonnull String scheme, @Nonnull String host, @Nullable Integer port, @Nonnull PathSegment[] pathSegments,
+        @Nonnull Param[] queryParams, @Nullable String unstructuredQuery, @Nullable String fragment,
+        boolean forceTrailingSlash) {
+        this.scheme = scheme;
+        this.host = host;
+        this.port = port;
+        this.pathSegments = pathSegments;
+        this.queryParams = queryParams;
+        this.unstructuredQuery = unstructuredQuery;
+        this.fragment = fragment;
+        this.forceTrailingSlash = forceTrailingSlash;
+    }
+
+    /**
+     * @return the scheme (e.g. http)
+     */
+    @Nonnull
+    public String getScheme() {
+        return scheme;
+    }
+
+    /**
+     * @return the unencoded host
+     */
+    @Nonnull
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return the port, or null if there is none
+     */
+    @Nullable
+    public Integer getPort() {
+        return port;
+    }
+
+    /**
+     * @return an unmodifiable view of the path segments
+     */
+    @Nonnull
+    public List<PathSegment> getPathSegments() {
+        List<PathSegment> list = pathSegmentList;
+        if (list == null) {
+            list = Collections.unmodifiableList(Arrays.asList(pathSegments));
+            pathSegmentList = list;
+        }
+        return list;
+    }
+
+    /**
+     * @return an unmodifiable view of the query params, in order. Empty if there is an unstructured query instead.
+     */
+    @Nonnull
+    public List<Param> getQueryParams() {
+        List<Param> list = queryParamList;
+        if (list == null) {
+            list = Collections.unmodifiableList(Arrays.asList(queryParams));
+            queryParamList = list;
+        }
+        return list;
+    }
+
+    /**
+     * @return the unencoded unstructured query, or null if there is none
+     */
+    @Nullable
+    public String getUnstructuredQuery() {
+        return unstructuredQuery;
+    }
+
+    /**
+     * @return the unencoded fragment, or null if there is none
+     */
+    @Nullable
+    public String getFragment() {
+        return fragment;
+    }
+
+    /**
+     * @return true if the URL string has a trailing slash at the end of the path
+     */
+    public boolean isForceTrailingSlash() {
+        return forceTrailingSlash;
+    }
+
+    /**
+     * @param segment a path segment
+     * @return a Url like this one with the path segment added. Query params are shared with this Url.
+     */
+    @Nonnull
+    public Url withPathSegment(@Nonnull String segment) {
+        PathSegment[] segments = Arrays.copyOf(pathSegments, pathSegments.length + 1);
+        segments[pathSegments.length] = new PathSegment(segment, NO_PARAMS);
+        return new Url(scheme, host, port, segments, queryParams, unstructuredQuery, fragment, forceTrailingSlash);
+    }
+
+    /**
+     * @param name  param name
+     * @param value param value
+     * @return a Url like this one with the query param added. Path segments are shared with this Url.
+     * @throws IllegalStateException if this Url has an unstructured query
+     * @see UrlBuilder#queryParam(String, String)
+     */
+    @Nonnull
+    public Url withQueryParam(@Nonnull String name, @Nonnull String value) {
+        return withQueryParam(new Param(name, value));
+    }
+
+    /**
+     * @param name param name
+     * @return a Url like this one with a query param with no value added. Path segments are shared with this Url.
+     * @throws IllegalStateException if this Url has an unstructured query
+     * @see UrlBuilder#queryParam(String)
+     */
+    @Nonnull
+    public Url withQueryParam(@Nonnull String name) {
+        return withQueryParam(new Param(name, null));
+    }
+
+    private Url withQueryParam(Param param) {
+        if (unstructuredQuery != null) {
+            throw new IllegalStateException(
+                "Cannot call withQueryParam() when this already has an unstructured query specified");
+        }
+
+        Param[] params = Arrays.copyOf(queryParams, queryParams.length + 1);
+        params[queryParams.length] = param;
+        return new Url(scheme, host, port, pathSegments, params, null, fragment, forceTrailingSlash);
+    }
+
+    /**
+     * @return a new UrlBuilder with the same components as this Url
+     */
+    @Nonnull
+    public UrlBuilder toBuilder() {
+        UrlBuilder builder = port == null ? UrlBuilder.forHost(scheme, host) : UrlBuilder.forHost(scheme, host, port);
+
+        for (PathSegment pathSegment : pathSegments) {
+            builder.pathSegment(pathSegment.segment);
+            for (Param matrixParam : pathSegment.matrixParams) {
+                builder.matrixParam(matrixParam.name, Objects.requireNonNull(matrixParam.value));
+            }
+        }
+
+        if (forceTrailingSlash) {
+            builder.forceTrailingSlash();
+        }
+
+        for (Param queryParam : queryParams) {
+            if (queryParam.value == null) {
+                builder.queryParam(queryParam.name);
+            } else {
+                builder.queryParam(queryParam.name, queryParam.value);
+            }
+        }
+        if (unstructuredQuery != null) {
+            builder.unstructuredQuery(unstructuredQuery);
+        }
+
+        if (fragment != null) {
+            builder.fragment(fragment);
+        }
+
+        return builder;
+    }
+
+    /**
+     * @return the URL string, as {@link UrlBuilder#toUrlString()} would produce it
+     */
+    @Override
+    public String toString() {
+        String s = urlString;
+        if (s == null) {
+            try {
+                s = toBuilder().toUrlString();
+            } catch (CharacterCodingException e) {
+                // the shared encoders replace unencodable chars rather than reporting them
+                throw new IllegalStateException("Could not encode URL", e);
+            }
+            urlString = s;
+        }
+        return s;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        Url url = (Url) o;
+        return hashCode() == url.hashCode()
+            && forceTrailingSlash == url.forceTrailingSlash
+            && scheme.equals(url.scheme)
+            && host.equals(url.host)
+            && Objects.equals(port, url.port)
+            && Arrays.equals(pathSegments, url.pathSegments)
+            && Arrays.equals(queryParams, url.queryParams)
+            && Objects.equals(unstructuredQuery, url.unstructuredQuery)
+            && Objects.equals(fragment, url.fragment);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = scheme.hashCode();
+            h = 31 * h + host.hashCode();
+            h = 31 * h + Objects.hashCode(port);
+            h = 31 * h + Arrays.hashCode(pathSegments);
+            h = 31 * h + Arrays.hashCode(queryParams);
+            h = 31 * h + Objects.hashCode(unstructuredQuery);
+            h = 31 * h + Objects.hashCode(fragment);
+            h = 31 * h + Boolean.hashCode(forceTrailingSlash);
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * A path segment and its matrix params.
+     */
+    @Immutable
+    public static final class PathSegment {
+
+        @Nonnull
+        private final String segment;
+
+        @Nonnull
+        private final Param[] matrixParams;
+
+        @Nullable
+        private List<Param> matrixParamList;
+
+        PathSegment(@Nonnull String segment, @Nonnull Param[] matrixParams) {
+            this.segment = segment;
+            this.matrixParams = matrixParams;
+        }
+
+        /**
+         * @return the unencoded path segment
+         */
+        @Nonnull
+        public String getSegment() {
+            return segment;
+        }
+
+        /**
+         * @return an unmodifiable view of the matrix params, in order
+         */
+        @Nonnull
+        public List<Param> getMatrixParams() {
+            List<Param> list = matrixParamList;
+            if (list == null) {
+                list = Collections.unmodifiableList(Arrays.asList(matrixParams));
+                matrixParamList = list;
+            }
+            return list;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            PathSegment that = (PathSegment) o;
+            return segment.equals(that.segment) && Arrays.equals(matrixParams, that.matrixParams);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * segment.hashCode() + Arrays.hashCode(matrixParams);
+        }
+
+        @Override
+        public String toString() {
+            return "PathSegment{segment='" + segment + "', matrixParams=" + Arrays.toString(matrixParams) + '}';
+        }
+    }
+
+    /**
+     * A query param or matrix param.
+     */
+    @Immutable
+    public static final class Param {
+
+        @Nonnull
+        private final String name;
+
+        @Nullable
+        private final String value;
+
+        Param(@Nonnull String name, @Nullable String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        /**
+         * @return the unencoded param name
+         */
+        @Nonnull
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the unencoded param value, or null for a query param with no value
+         */
+        @Nullable
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Param param = (Param) o;
+            return name.equals(param.name) && Objects.equals(value, param.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * name.hashCode() + Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return value == null ? name : name + '=' + value;
+        }
+    }
+}
@@ -10,7 +10,6 @@ import java.nio.charset.CharsetDecoder;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Pattern;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
@@ -21,7 +20,6 @@ import static com.palominolabs.http.url.UrlPercentEncoders.getPathEncoder;
 import static com.palominolabs.http.url.UrlPercentEncoders.getQueryParamEncoder;
 import static com.palominolabs.http.url.UrlPercentEncoders.getRegNameEncoder;
 import static com.palominolabs.http.url.UrlPercentEncoders.getUnstructuredQueryEncoder;
-import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Builder for urls with url-encoding applied to path, query param, etc.
@@ -33,18 +31,20 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 @NotThreadSafe
 public final class UrlBuilder {
 
-    /**
-     * IPv6 address, cribbed from http://stackoverflow.com/questions/46146/what-are-the-java-regular-expressions-for-matching-ipv4-and-ipv6-strings
+    /*
+     * Encoders are thread safe, so every builder shares the same ones.
      */
-    private static final Pattern IPV6_PATTERN = Pattern
-            .compile(
-                    "\\A\\[((?:[0-9A-Fa-f]{1,4}(?::[0-9A-Fa-f]{1,4})*)?)::((?:[0-9A-Fa-f]{1,4}(?::[0-9A-Fa-f]{1,4})*)?)]\\z");
+    private static final PercentEncoder PATH_ENCODER = getPathEncoder();
+    private static final PercentEncoder REG_NAME_ENCODER = getRegNameEncoder();
+    private static final PercentEncoder MATRIX_ENCODER = getMatrixEncoder();
+    private static final PercentEncoder QUERY_PARAM_ENCODER = getQueryParamEncoder();
+    private static final PercentEncoder UNSTRUCTURED_QUERY_ENCODER = getUnstructuredQueryEncoder();
+    private static final PercentEncoder FRAGMENT_ENCODER = getFragmentEncoder();
 
     /**
-     * IPv4 dotted quad
+     * Parsers aren't thread safe, but they are reusable, so each thread gets its own.
      */
-    private static final Pattern IPV4_PATTERN = Pattern
-            .compile("\\A(25[0-5]|2[0-4]\\d|[0-1]?\\d?\\d)(\\.(25[0-5]|2[0-4]\\d|[0-1]?\\d?\\d)){3}\\z");
+    private static final ThreadLocal<UrlParser> UTF8_PARSER = ThreadLocal.withInitial(UrlParser::new);
 
     @Nonnull
     private final String scheme;
@@ -55,6 +55,12 @@ public final class UrlBuilder {
     @Nullable
     private final Integer port;
 
+    /**
+     * The host as written in the URL string. Since the host never changes, this is computed once, when first needed.
+     */
+    @Nullable
+    private String encodedHost;
+
     private final List<Pair<String, String>> queryParams = new ArrayList<>();
 
     /**
@@ -65,13 +71,6 @@ public final class UrlBuilder {
 
     private final List<PathSegment> pathSegments = new ArrayList<>();
 
-    private final PercentEncoder pathEncoder = getPathEncoder();
-    private final PercentEncoder regNameEncoder = getRegNameEncoder();
-    private final PercentEncoder matrixEncoder = getMatrixEncoder();
-    private final PercentEncoder queryParamEncoder = getQueryParamEncoder();
-    private final PercentEncoder unstructuredQueryEncoder = getUnstructuredQueryEncoder();
-    private final PercentEncoder fragmentEncoder = getFragmentEncoder();
-
     @Nullable
     private String fragment;
 
@@ -114,10 +113,50 @@ public final class UrlBuilder {
         return new UrlBuilder(scheme, host, port);
     }
 
+    /**
+     * Create a UrlBuilder initialized with the contents of a URL string, as {@link UrlBuilder#fromUrl(URL)} would be
+     * for the equivalent {@link URL}, without creating a URL. %-encoded bytes are decoded as UTF-8.
+     *
+     * This uses a {@link UrlParser} per thread, so no decoders are created per call.
+     *
+     * @param url url string to initialize builder with, e.g. "http://foo.com/bar?q=1"
+     * @return a UrlBuilder containing the host, path, etc. from the url
+     * @throws CharacterCodingException if char decoding fails
+     * @throws IllegalArgumentException if the url is not of the form "scheme://authority..." or has invalid
+     *                                  %-sequences
+     * @see UrlParser#parse(String)
+     */
+    @Nonnull
+    public static UrlBuilder fromString(@Nonnull String url) throws CharacterCodingException {
+        return UTF8_PARSER.get().parse(url);
+    }
+
+    /**
+     * Create a UrlBuilder initialized with the contents of a URL string, as {@link UrlBuilder#fromUrl(URL,
+     * CharsetDecoder)} would be for the equivalent {@link URL}, without creating a URL. To parse many URLs with the
+     * same charset, reuse a {@link UrlParser} instead.
+     *
+     * @param url            url string to initialize builder with, e.g. "http://foo.com/bar?q=1"
+     * @param charsetDecoder the decoder to decode encoded bytes with (except for reg names, which are always UTF-8)
+     * @return a UrlBuilder containing the host, path, etc. from the url
+     * @throws CharacterCodingException if decoding percent-encoded bytes fails and charsetDecoder is configured to
+     *                                  report errors
+     * @throws IllegalArgumentException if the url is not of the form "scheme://authority..." or has invalid
+     *                                  %-sequences
+     * @see UrlParser#parse(String)
+     */
+    @Nonnull
+    public static UrlBuilder fromString(@Nonnull String url, @Nonnull CharsetDecoder charsetDecoder) throws
+            CharacterCodingException {
+        return new UrlParser(charsetDecoder).parse(url);
+    }
+
     /**
      * Calls {@link UrlBuilder#fromUrl(URL, CharsetDecoder)} with a UTF-8 CharsetDecoder. The same semantics about the
      * query string apply.
      *
+     * This uses a {@link UrlParser} per thread, so no decoders are created per call.
+     *
      * @param url url to initialize builder with
      * @return a UrlBuilder containing the host, path, etc. from the url
      * @throws CharacterCodingException if char decoding fails
@@ -125,57 +164,33 @@ public final class UrlBuilder {
      */
     @Nonnull
     public static UrlBuilder fromUrl(@Nonnull URL url) throws CharacterCodingException {
-        return fromUrl(url, UTF_8.newDecoder());
+        return UTF8_PARSER.get().parse(url);
     }
 
     /**
      * Create a UrlBuilder initialized with the contents of a {@link URL}.
      *
-     * The query string will be parsed into HTML4 query params if it can be separated into a
-     * <code>&amp;</code>-separated sequence of <code>key=value</code> pairs. The sequence of query params can then be
-     * appended to by continuing to call {@link UrlBuilder#queryParam(String, String)}. The concept of query params is
-     * only part of the HTML spec (and common HTTP usage), though, so it's perfectly legal to have a query string that
-     * is in some other form. To represent this case, if the aforementioned param-parsing attempt fails, the query
-     * string will be treated as just a monolithic, unstructured, string. In this case, calls to {@link
-     * UrlBuilder#queryParam(String, String)} on the resulting instance will throw IllegalStateException, and only calls
-     * to {@link UrlBuilder#unstructuredQuery(String)}}, which replaces the entire query string, are allowed.
+     * A non-empty query string will be parsed into HTML4 query params: it is split on <code>&amp;</code>, and each
+     * param's name ends at its first <code>=</code>. Everything after that is the value, so "a=b=c" is the param "a"
+     * with the value "b=c", and a param without any <code>=</code>, like "flag", is added with no value (see {@link
+     * UrlBuilder#queryParam(String)}). Empty params, as in "a=1&amp;&amp;b=2", are dropped. The sequence of query
+     * params can then be appended to by continuing to call {@link UrlBuilder#queryParam(String, String)}.
+     *
+     * An empty query string (a URL ending in "?") is kept as an empty unstructured query, so calls to {@link
+     * UrlBuilder#queryParam(String, String)} on the resulting instance will throw IllegalStateException until {@link
+     * UrlBuilder#clearQuery()} is called.
      *
      * @param url            url to initialize builder with
      * @param charsetDecoder the decoder to decode encoded bytes with (except for reg names, which are always UTF-8)
      * @return a UrlBuilder containing the host, path, etc. from the url
      * @throws CharacterCodingException if decoding percent-encoded bytes fails and charsetDecoder is configured to
      *                                  report errors
-     * @see UrlBuilder#fromUrl(URL, CharsetDecoder)
+     * @see UrlParser#parse(URL)
      */
     @Nonnull
     public static UrlBuilder fromUrl(@Nonnull URL url, @Nonnull CharsetDecoder charsetDecoder) throws
             CharacterCodingException {
-
-        PercentDecoder decoder = new PercentDecoder(charsetDecoder);
-        // reg names must be encoded UTF-8
-        PercentDecoder regNameDecoder;
-        if (charsetDecoder.charset().equals(UTF_8)) {
-            regNameDecoder = decoder;
-        } else {
-            regNameDecoder = new PercentDecoder(UTF_8.newDecoder());
-        }
-
-        Integer port = url.getPort();
-        if (port == -1) {
-            port = null;
-        }
-
-        UrlBuilder builder = new UrlBuilder(url.getProtocol(), regNameDecoder.decode(url.getHost()), port);
-
-        buildFromPath(builder, decoder, url);
-
-        buildFromQuery(builder, decoder, url);
-
-        if (url.getRef() != null) {
-            builder.fragment(decoder.decode(url.getRef()));
-        }
-
-        return builder;
+        return new UrlParser(charsetDecoder).parse(url);
     }
 
     /**
@@ -211,8 +226,8 @@ public final class UrlBuilder {
      * Using query strings to encode key=value pairs is not part of the URI/URL specification; it is specified by
      * http://www.w3.org/TR/html401/interact/forms.html#form-content-type.
      *
-     * If you use this method to build a query string, or created this builder from a url with a query string that can
-     * successfully be parsed into query param pairs, you cannot subsequently use {@link
+     * If you use this method to build a query string, or created this builder from a url with a non-empty query
+     * string, you cannot subsequently use {@link
      * UrlBuilder#unstructuredQuery(String)}. See {@link UrlBuilder#fromUrl(URL, CharsetDecoder)}.
      *
      * @param name  param name
@@ -230,14 +245,33 @@ public final class UrlBuilder {
         return this;
     }
 
+    /**
+     * Add an HTML query parameter with no value, e.g. the "flag" in "?flag&amp;a=b". Unlike a param with an empty
+     * value, which is encoded as "flag=", this is encoded as just the name.
+     *
+     * The same restrictions as for {@link UrlBuilder#queryParam(String, String)} apply.
+     *
+     * @param name param name
+     * @return this
+     */
+    @Nonnull
+    public UrlBuilder queryParam(@Nonnull String name) {
+        if (unstructuredQuery != null) {
+            throw new IllegalStateException(
+                    "Cannot call queryParam() when this already has an unstructured query specified");
+        }
+
+        queryParams.add(Pair.of(name, null));
+        return this;
+    }
+
     /**
      * Set the complete query string of arbitrary structure. This is useful when you want to specify a query string that
      * is not of key=value format. If the query has previously been set via this method, subsequent calls will overwrite
      * that query.
      *
-     * If you use this method, or create a builder from a URL whose query is not parseable into query param pairs, you
-     * cannot subsequently use {@link UrlBuilder#queryParam(String, String)}. See {@link UrlBuilder#fromUrl(URL,
-     * CharsetDecoder)}.
+     * If you use this method, or create a builder from a URL with an empty query, you cannot subsequently use {@link
+     * UrlBuilder#queryParam(String, String)}. See {@link UrlBuilder#fromUrl(URL, CharsetDecoder)}.
      *
      * @param query Complete URI query, as specified by https://tools.ietf.org/html/rfc3986#section-3.4
      * @return this
@@ -314,6 +348,35 @@ public final class UrlBuilder {
         return this;
     }
 
+    /**
+     * Create an immutable snapshot of the current builder state. Later changes to this builder don't affect it.
+     *
+     * @return a Url with the same components as this builder
+     */
+    @Nonnull
+    public Url build() {
+        Url.PathSegment[] segments = new Url.PathSegment[pathSegments.size()];
+        for (int i = 0; i < segments.length; i++) {
+            PathSegment pathSegment = pathSegments.get(i);
+            segments[i] = new Url.PathSegment(pathSegment.segment, toParams(pathSegment.matrixParams));
+        }
+
+        return new Url(scheme, host, port, segments, toParams(queryParams), unstructuredQuery, fragment,
+                forceTrailingSlash);
+    }
+
+    private static Url.Param[] toParams(List<Pair<String, String>> pairs) {
+        if (pairs.isEmpty()) {
+            return Url.NO_PARAMS;
+        }
+
+        Url.Param[] params = new Url.Param[pairs.size()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = new Url.Param(pairs.get(i).getKey(), pairs.get(i).getValue());
+        }
+        return params;
+    }
+
     /**
      * Encode the current builder state into a URL string.
      *
@@ -321,12 +384,12 @@ public final class UrlBuilder {
      * @throws CharacterCodingException if character encoding fails and the encoder is configured to report errors
      */
     public String toUrlString() throws CharacterCodingException {
-        StringBuilder buf = new StringBuilder();
+        StringBuilder buf = new StringBuilder(encodedLength());
 
         buf.append(scheme);
         buf.append("://");
 
-        buf.append(encodeHost(host));
+        buf.append(encodedHost());
         if (port != null) {
             buf.append(':');
             buf.append(port);
@@ -334,13 +397,13 @@ public final class UrlBuilder {
 
         for (PathSegment pathSegment : pathSegments) {
             buf.append('/');
-            buf.append(pathEncoder.encode(pathSegment.segment));
+            PATH_ENCODER.encodeTo(pathSegment.segment, buf);
 
             for (Pair<String, String> matrixParam : pathSegment.matrixParams) {
                 buf.append(';');
-                buf.append(matrixEncoder.encode(matrixParam.getKey()));
+                MATRIX_ENCODER.encodeTo(matrixParam.getKey(), buf);
                 buf.append('=');
-                buf.append(matrixEncoder.encode(matrixParam.getValue()));
+                MATRIX_ENCODER.encodeTo(matrixParam.getValue(), buf);
             }
         }
 
@@ -353,130 +416,108 @@ public final class UrlBuilder {
             Iterator<Pair<String, String>> qpIter = queryParams.iterator();
             while (qpIter.hasNext()) {
                 Pair<String, String> queryParam = qpIter.next();
-                buf.append(queryParamEncoder.encode(queryParam.getKey()));
-                buf.append('=');
-                buf.append(queryParamEncoder.encode(queryParam.getValue()));
+                QUERY_PARAM_ENCODER.encodeTo(queryParam.getKey(), buf);
+                if (queryParam.getValue() != null) {
+                    buf.append('=');
+                    QUERY_PARAM_ENCODER.encodeTo(queryParam.getValue(), buf);
+                }
                 if (qpIter.hasNext()) {
                     buf.append('&');
                 }
             }
         } else if (unstructuredQuery != null) {
             buf.append("?");
-            buf.append(unstructuredQueryEncoder.encode(unstructuredQuery));
+            UNSTRUCTURED_QUERY_ENCODER.encodeTo(unstructuredQuery, buf);
         }
 
         if (fragment != null) {
             buf.append('#');
-            buf.append(fragmentEncoder.encode(fragment));
+            FRAGMENT_ENCODER.encodeTo(fragment, buf);
         }
 
         return buf.toString();
     }
 
     /**
-     * Populate a url builder based on the query of a url
+     * Calculate the exact length of the string that {@link UrlBuilder#toUrlString()} would produce for the current
+     * builder state, without producing it. This allows output buffers to be sized exactly.
      *
-     * @param builder builder
-     * @param decoder decoder
-     * @param url     url
-     * @throws CharacterCodingException
+     * @return the length of the encoded URL string
+     * @throws CharacterCodingException if character encoding fails and the encoder is configured to report errors
      */
-    private static void buildFromQuery(UrlBuilder builder, PercentDecoder decoder, URL url) throws
-            CharacterCodingException {
-        if (url.getQuery() != null) {
-            String q = url.getQuery();
-
-            // try to parse into &-separated key=value pairs
-            List<Pair<String, String>> pairs = new ArrayList<>();
-            boolean parseOk = true;
-
-            for (String queryChunk : q.split("&")) {
-                String[] queryParamChunks = queryChunk.split("=");
+    public int encodedLength() throws CharacterCodingException {
+        int length = scheme.length() + "://".length();
 
-                if (queryParamChunks.length != 2) {
-                    parseOk = false;
-                    break;
-                }
+        length += encodedHost().length();
+        if (port != null) {
+            length += 1 + decimalLength(port);
+        }
 
-                pairs.add(Pair.of(decoder.decode(queryParamChunks[0]),
-                        decoder.decode(queryParamChunks[1])));
-            }
+        for (PathSegment pathSegment : pathSegments) {
+            length += 1 + PATH_ENCODER.encodedLength(pathSegment.segment);
 
-            if (parseOk) {
-                for (Pair<String, String> pair : pairs) {
-                    builder.queryParam(pair.getKey(), pair.getValue());
-                }
-            } else {
-                builder.unstructuredQuery(decoder.decode(q));
+            for (Pair<String, String> matrixParam : pathSegment.matrixParams) {
+                length += 2 + MATRIX_ENCODER.encodedLength(matrixParam.getKey())
+                        + MATRIX_ENCODER.encodedLength(matrixParam.getValue());
             }
         }
-    }
 
-    /**
-     * Populate the path segments of a url builder from a url
-     *
-     * @param builder builder
-     * @param decoder decoder
-     * @param url     url
-     * @throws CharacterCodingException
-     */
-    private static void buildFromPath(UrlBuilder builder, PercentDecoder decoder, URL url) throws
-            CharacterCodingException {
-        for (String pathChunk : url.getPath().split("/")) {
-            if (pathChunk.equals("")) {
-                continue;
-            }
+        if (forceTrailingSlash) {
+            length++;
+        }
 
-            if (pathChunk.charAt(0) == ';') {
-                builder.pathSegment("");
-                // empty path segment, but matrix params
-                for (String matrixChunk : pathChunk.substring(1).split(";")) {
-                    buildFromMatrixParamChunk(decoder, builder, matrixChunk);
+        if (!queryParams.isEmpty()) {
+            // '?', then '&' between pairs
+            length += queryParams.size();
+            for (Pair<String, String> queryParam : queryParams) {
+                length += QUERY_PARAM_ENCODER.encodedLength(queryParam.getKey());
+                if (queryParam.getValue() != null) {
+                    length += 1 + QUERY_PARAM_ENCODER.encodedLength(queryParam.getValue());
                 }
-
-                continue;
             }
+        } else if (unstructuredQuery != null) {
+            length += 1 + UNSTRUCTURED_QUERY_ENCODER.encodedLength(unstructuredQuery);
+        }
 
-            // otherwise, path chunk is non empty and does not start with a ';'
-
-            String[] matrixChunks = pathChunk.split(";");
-
-            // first chunk is always the path segment. If there is a trailing ; and no matrix params, the ; will
-            // not be included in the final url.
-            builder.pathSegment(decoder.decode(matrixChunks[0]));
-
-            // if there any other chunks, they're matrix param pairs
-            for (int i = 1; i < matrixChunks.length; i++) {
-                buildFromMatrixParamChunk(decoder, builder, matrixChunks[i]);
-            }
+        if (fragment != null) {
+            length += 1 + FRAGMENT_ENCODER.encodedLength(fragment);
         }
+
+        return length;
     }
 
-    private static void buildFromMatrixParamChunk(PercentDecoder decoder, UrlBuilder ub, String pathMatrixChunk) throws
-            CharacterCodingException {
-        String[] mtxPair = pathMatrixChunk.split("=");
-        if (mtxPair.length != 2) {
-            throw new IllegalArgumentException("Malformed matrix param: <" + pathMatrixChunk + ">");
+    /**
+     * @return the host encoded as in RFC 3986 section 3.2.2
+     */
+    private String encodedHost() throws CharacterCodingException {
+        if (encodedHost == null) {
+            encodedHost = encodeHost(host);
         }
-
-        String mtxName = mtxPair[0];
-        String mtxVal = mtxPair[1];
-        ub.matrixParam(decoder.decode(mtxName), decoder.decode(mtxVal));
+        return encodedHost;
     }
 
     /**
      * @param host original host string
-     * @return host encoded as in RFC 3986 section 3.2.2
+     * @return the host encoded as in RFC 3986 section 3.2.2
      */
-    @Nonnull
-    private String encodeHost(String host) throws CharacterCodingException {
-        // matching order: IP-literal, IPv4, reg-name
-        if (IPV4_PATTERN.matcher(host).matches() || IPV6_PATTERN.matcher(host).matches()) {
-            return host;
-        }
+    static String encodeHost(String host) throws CharacterCodingException {
+        // matching order: IP-literal, IPv4, reg-name. IP literals are used as is; reg-names MUST be encoded as UTF-8
+        // (regardless of the rest of the URL)
+        return IpLiterals.isIpLiteral(host) ? host : REG_NAME_ENCODER.encode(host);
+    }
 
-        // it's a reg-name, which MUST be encoded as UTF-8 (regardless of the rest of the URL)
-        return regNameEncoder.encode(host);
+    /**
+     * @param i an int
+     * @return the number of chars in the decimal representation of i
+     */
+    private static int decimalLength(int i) {
+        // account for the sign
+        int length = i < 0 ? 2 : 1;
+        while (i >= 10 || i <= -10) {
+            i /= 10;
+            length++;
+        }
+        return length;
     }
 
     /**
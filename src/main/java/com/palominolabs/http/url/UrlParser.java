@@ -0,0 +1,314 @@
+package com.palominolabs.http.url;
+
+import java.net.URL;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.util.Locale;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Parses URL strings into {@link UrlBuilder}s in a single pass over the string, without creating a {@link URL} or
+ * splitting the string into pieces first. Each component is decoded straight out of the string.
+ *
+ * The result is the same as {@link UrlBuilder#fromUrl(URL, CharsetDecoder)} for the equivalent URL: the scheme is
+ * lower-cased, any user info is dropped, the query is parsed into query params, and so on. Unlike java.net.URL, any
+ * scheme is accepted, but the URL must have an authority (i.e. "scheme://host...").
+ *
+ * A parser holds on to its percent decoders, so reusing one parser for many URLs avoids creating decoders for each
+ * one. Instances are not thread safe; use one per thread.
+ */
+@NotThreadSafe
+public final class UrlParser {
+
+    private final PercentDecoder decoder;
+    /**
+     * Reg names are always UTF-8, so this is the same as decoder if the charset is UTF-8
+     */
+    private final PercentDecoder regNameDecoder;
+
+    /**
+     * Create a parser that decodes %-encoded bytes as UTF-8.
+     */
+    public UrlParser() {
+        this(UTF_8.newDecoder());
+    }
+
+    /**
+     * @param charsetDecoder the decoder to decode encoded bytes with (except for reg names, which are always UTF-8).
+     *                       It is used by this parser exclusively from now on.
+     */
+    public UrlParser(@Nonnull CharsetDecoder charsetDecoder) {
+        decoder = new PercentDecoder(charsetDecoder);
+        if (charsetDecoder.charset().equals(UTF_8)) {
+            regNameDecoder = decoder;
+        } else {
+            regNameDecoder = new PercentDecoder(UTF_8.newDecoder());
+        }
+    }
+
+    /**
+     * @param url a URL string, e.g. "http://foo.com/bar;mtx=val?q=1#frag"
+     * @return a new UrlBuilder containing the host, path, etc. from the url
+     * @throws CharacterCodingException if decoding percent-encoded bytes fails and the charset decoder is configured
+     *                                  to report errors
+     * @throws IllegalArgumentException if the url has no scheme or authority, has an invalid port, or has invalid
+     *                                  %-sequences or malformed matrix params
+     */
+    @Nonnull
+    public UrlBuilder parse(@Nonnull String url) throws CharacterCodingException {
+        // like java.net.URL, ignore leading and trailing whitespace and control chars
+        int start = 0;
+        int end = url.length();
+        while (start < end && url.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && url.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        int schemeEnd = schemeEnd(url, start, end);
+        if (schemeEnd == -1 || !url.startsWith("//", schemeEnd + 1)) {
+            throw new IllegalArgumentException("Invalid URL <" + url + ">: must start with scheme://");
+        }
+        String scheme = url.substring(start, schemeEnd).toLowerCase(Locale.ROOT);
+
+        // everything after the first '#' is the fragment, and everything between the first '?' before that and the
+        // fragment is the query
+        int fragmentStart = indexOf(url, '#', schemeEnd, end);
+        int queryStart = indexOf(url, '?', schemeEnd, fragmentStart);
+
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = indexOf(url, '/', authorityStart, queryStart);
+
+        UrlBuilder builder = buildFromAuthority(url, scheme, authorityStart, authorityEnd);
+
+        buildFromPath(builder, url, authorityEnd, queryStart);
+
+        if (queryStart < fragmentStart) {
+            buildFromQuery(builder, url, queryStart + 1, fragmentStart);
+        }
+
+        if (fragmentStart < end) {
+            builder.fragment(decoder.decode(url, fragmentStart + 1, end));
+        }
+
+        return builder;
+    }
+
+    /**
+     * Populate a builder from the components of an already parsed URL. The path and query are scanned the same way as
+     * by {@link UrlParser#parse(String)}.
+     *
+     * @param url a URL
+     * @return a new UrlBuilder containing the host, path, etc. from the url
+     * @throws CharacterCodingException if decoding percent-encoded bytes fails and the charset decoder is configured
+     *                                  to report errors
+     * @throws IllegalArgumentException if the url has invalid %-sequences or malformed matrix params
+     */
+    @Nonnull
+    public UrlBuilder parse(@Nonnull URL url) throws CharacterCodingException {
+        String host = regNameDecoder.decode(url.getHost());
+        UrlBuilder builder = url.getPort() == -1 ? UrlBuilder.forHost(url.getProtocol(), host)
+            : UrlBuilder.forHost(url.getProtocol(), host, url.getPort());
+
+        String path = url.getPath();
+        buildFromPath(builder, path, 0, path.length());
+
+        String query = url.getQuery();
+        if (query != null) {
+            buildFromQuery(builder, query, 0, query.length());
+        }
+
+        if (url.getRef() != null) {
+            builder.fragment(decoder.decode(url.getRef()));
+        }
+
+        return builder;
+    }
+
+    /**
+     * @return the index of the ':' after the scheme, or -1 if the url doesn't start with a valid scheme
+     */
+    private static int schemeEnd(String url, int start, int end) {
+        if (start == end || !isAsciiLetter(url.charAt(start))) {
+            return -1;
+        }
+
+        for (int i = start + 1; i < end; i++) {
+            char c = url.charAt(i);
+            if (c == ':') {
+                return i;
+            }
+            if (!isAsciiLetter(c) && !(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '.') {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Create a builder with the host and port of the authority. User info is dropped.
+     */
+    private UrlBuilder buildFromAuthority(String url, String scheme, int start, int end) throws
+        CharacterCodingException {
+        int at = indexOf(url, '@', start, end);
+        if (at < end && indexOf(url, '@', at + 1, end) < end) {
+            // as with java.net.URL, an authority with more than one '@' has no usable host
+            return UrlBuilder.forHost(scheme, "");
+        }
+        int hostStart = at < end ? at + 1 : start;
+
+        int hostEnd;
+        if (hostStart < end && url.charAt(hostStart) == '[') {
+            // IP literal: a ':' only separates the port after the ']'
+            int literalEnd = indexOf(url, ']', hostStart, end);
+            if (literalEnd == end) {
+                throw new IllegalArgumentException("Invalid URL <" + url + ">: unterminated IP literal");
+            }
+            hostEnd = literalEnd + 1;
+            if (hostEnd < end && url.charAt(hostEnd) != ':') {
+                throw new IllegalArgumentException("Invalid URL <" + url + ">: unexpected chars after IP literal");
+            }
+        } else {
+            hostEnd = indexOf(url, ':', hostStart, end);
+        }
+
+        String host = regNameDecoder.decode(url, hostStart, hostEnd);
+
+        // an empty port is no port
+        if (hostEnd + 1 >= end) {
+            return UrlBuilder.forHost(scheme, host);
+        }
+
+        return UrlBuilder.forHost(scheme, host, parsePort(url, hostEnd + 1, end));
+    }
+
+    private static int parsePort(String url, int start, int end) {
+        int port = 0;
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c < '0' || c > '9' || port > (Integer.MAX_VALUE - (c - '0')) / 10) {
+                throw new IllegalArgumentException(
+                    "Invalid URL <" + url + ">: invalid port <" + url.substring(start, end) + ">");
+            }
+            port = port * 10 + (c - '0');
+        }
+        return port;
+    }
+
+    /**
+     * Add the path segments and matrix params of the path in [start, end). Empty segments are skipped.
+     */
+    private void buildFromPath(UrlBuilder builder, String url, int start, int end) throws
+        CharacterCodingException {
+        int segmentStart = start;
+        while (segmentStart < end) {
+            if (url.charAt(segmentStart) == '/') {
+                segmentStart++;
+                continue;
+            }
+
+            int segmentEnd = indexOf(url, '/', segmentStart, end);
+            int nameEnd = indexOf(url, ';', segmentStart, segmentEnd);
+            builder.pathSegment(decoder.decode(url, segmentStart, nameEnd));
+
+            if (nameEnd < segmentEnd) {
+                buildFromMatrixParams(builder, url, nameEnd + 1, segmentEnd, nameEnd == segmentStart);
+            }
+
+            segmentStart = segmentEnd;
+        }
+    }
+
+    /**
+     * Add the ';'-separated matrix params in [start, end) to the last path segment. As with String.split(), trailing
+     * empty params are ignored, unless the segment name is empty and there is nothing at all after the ';'.
+     *
+     * @param emptyName true if the path segment name is empty
+     */
+    private void buildFromMatrixParams(UrlBuilder builder, String url, int start, int end, boolean emptyName) throws
+        CharacterCodingException {
+        int paramsEnd = trimTrailing(url, ';', start, end);
+        if (paramsEnd == start && (start < end || !emptyName)) {
+            return;
+        }
+
+        int paramStart = start;
+        while (true) {
+            int paramEnd = indexOf(url, ';', paramStart, paramsEnd);
+            int valueEnd = trimTrailing(url, '=', paramStart, paramEnd);
+            int separator = indexOf(url, '=', paramStart, valueEnd);
+            if (separator == valueEnd || indexOf(url, '=', separator + 1, valueEnd) != valueEnd) {
+                throw new IllegalArgumentException(
+                    "Malformed matrix param: <" + url.substring(paramStart, paramEnd) + ">");
+            }
+
+            builder.matrixParam(decoder.decode(url, paramStart, separator),
+                decoder.decode(url, separator + 1, valueEnd));
+
+            if (paramEnd == paramsEnd) {
+                return;
+            }
+            paramStart = paramEnd + 1;
+        }
+    }
+
+    /**
+     * Add the '&amp;'-separated query params in [start, end) to the builder. Each param's name ends at its first '=',
+     * and everything after that is its value, so "a=b=c" has the value "b=c". A param without any '=' has no value.
+     * Empty params (e.g. between "&amp;&amp;") are skipped. A query that is entirely empty is kept as an empty
+     * unstructured query so that the '?' is preserved.
+     */
+    private void buildFromQuery(UrlBuilder builder, String url, int start, int end) throws
+        CharacterCodingException {
+        if (start == end) {
+            builder.unstructuredQuery("");
+            return;
+        }
+
+        int pairStart = start;
+        while (pairStart < end) {
+            int pairEnd = indexOf(url, '&', pairStart, end);
+            if (pairEnd > pairStart) {
+                int separator = indexOf(url, '=', pairStart, pairEnd);
+                String name = decoder.decode(url, pairStart, separator);
+                if (separator == pairEnd) {
+                    builder.queryParam(name);
+                } else {
+                    builder.queryParam(name, decoder.decode(url, separator + 1, pairEnd));
+                }
+            }
+            pairStart = pairEnd + 1;
+        }
+    }
+
+    /**
+     * @return end, moved back past any c chars at the end of [start, end)
+     */
+    private static int trimTrailing(String url, char c, int start, int end) {
+        while (end > start && url.charAt(end - 1) == c) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * @return the index of the first c in [from, end), or end if there isn't one
+     */
+    private static int indexOf(String url, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (url.charAt(i) == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+}
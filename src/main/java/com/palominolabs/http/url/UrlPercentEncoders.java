@@ -4,7 +4,7 @@
 
 package com.palominolabs.http.url;
 
-import java.util.BitSet;
+import java.nio.charset.CharsetEncoder;
 import javax.annotation.concurrent.ThreadSafe;
 
 import static java.nio.charset.CodingErrorAction.REPLACE;
@@ -12,178 +12,222 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * See RFC 3986, RFC 1738 and http://www.lunatech-research.com/archives/2009/02/03/what-every-web-developer-must-know-about-url-encoding.
+ *
+ * To avoid re-encoding values that are used over and over, wrap one of these encoders in a {@link
+ * CachingPercentEncoder}.
  */
 @ThreadSafe
 public final class UrlPercentEncoders {
 
     /**
-     * an encoder for RFC 3986 reg-names
+     * RFC 3986 'reg-name'. This is not very aggressive... it's quite possible to have DNS-illegal names out of this.
+     * Regardless, it will at least be URI-compliant even if it's not HTTP URL-compliant.
      */
+    private static final SafeCharSet REG_NAME_SAFE_CHARS = addSubdelims(addUnreserved(SafeCharSet.builder())).build();
 
-    private static final BitSet REG_NAME_BIT_SET = new BitSet();
-
-    private static final BitSet PATH_BIT_SET = new BitSet();
-    private static final BitSet MATRIX_BIT_SET = new BitSet();
-    private static final BitSet UNSTRUCTURED_QUERY_BIT_SET = new BitSet();
-    private static final BitSet QUERY_PARAM_BIT_SET = new BitSet();
-    private static final BitSet FRAGMENT_BIT_SET = new BitSet();
-
-    static {
-        // RFC 3986 'reg-name'. This is not very aggressive... it's quite possible to have DNS-illegal names out of this.
-        // Regardless, it will at least be URI-compliant even if it's not HTTP URL-compliant.
-        addUnreserved(REG_NAME_BIT_SET);
-        addSubdelims(REG_NAME_BIT_SET);
+    /**
+     * Represents RFC 3986 'pchar'. Remove delimiter that starts matrix section.
+     */
+    private static final SafeCharSet PATH_SAFE_CHARS = addPChar(SafeCharSet.builder())
+            .remove(';')
+            .build();
 
-        // Represents RFC 3986 'pchar'. Remove delimiter that starts matrix section.
-        addPChar(PATH_BIT_SET);
-        PATH_BIT_SET.clear((int) ';');
+    /**
+     * Remove delims for HTTP matrix params as per RFC 1738 S3.3. The other reserved chars ('/' and '?') are already
+     * excluded.
+     */
+    private static final SafeCharSet MATRIX_SAFE_CHARS = addPChar(SafeCharSet.builder())
+            .remove(';')
+            .remove('=')
+            .build();
 
-        // Remove delims for HTTP matrix params as per RFC 1738 S3.3. The other reserved chars ('/' and '?') are already excluded.
-        addPChar(MATRIX_BIT_SET);
-        MATRIX_BIT_SET.clear((int) ';');
-        MATRIX_BIT_SET.clear((int) '=');
+    /**
+     * RFC 3986 'query'. http://www.w3.org/TR/html4/interact/forms.html#h-17.13.4.1 also specifies that "+" can mean
+     * space in a query, so we will make sure to say that '+' is not safe to leave as-is
+     */
+    private static final SafeCharSet UNSTRUCTURED_QUERY_SAFE_CHARS = addQuery(SafeCharSet.builder())
+            .remove('+')
+            .build();
 
-        /*
-         * At this point it represents RFC 3986 'query'. http://www.w3.org/TR/html4/interact/forms.html#h-17.13.4.1 also
-         * specifies that "+" can mean space in a query, so we will make sure to say that '+' is not safe to leave as-is
-         */
-        addQuery(UNSTRUCTURED_QUERY_BIT_SET);
-        UNSTRUCTURED_QUERY_BIT_SET.clear((int) '+');
+    /**
+     * More stringent requirements for HTML4 queries: remove delimiters for HTML query params so that key=value pairs
+     * can be used.
+     */
+    private static final SafeCharSet QUERY_PARAM_SAFE_CHARS = UNSTRUCTURED_QUERY_SAFE_CHARS.toBuilder()
+            .remove('=')
+            .remove('&')
+            .build();
 
-        /*
-         * Create more stringent requirements for HTML4 queries: remove delimiters for HTML query params so that key=value
-         * pairs can be used.
-         */
-        QUERY_PARAM_BIT_SET.or(UNSTRUCTURED_QUERY_BIT_SET);
-        QUERY_PARAM_BIT_SET.clear((int) '=');
-        QUERY_PARAM_BIT_SET.clear((int) '&');
+    private static final SafeCharSet FRAGMENT_SAFE_CHARS = addFragment(SafeCharSet.builder()).build();
 
-        addFragment(FRAGMENT_BIT_SET);
-    }
+    /**
+     * application/x-www-form-urlencoded as per the WHATWG URL spec: only alphanumerics and "*-._" are left as-is, and
+     * space becomes '+'. This is the same set that java.net.URLEncoder leaves as-is.
+     */
+    private static final SafeCharSet FORM_SAFE_CHARS = SafeCharSet.builder()
+            .addRange('a', 'z')
+            .addRange('A', 'Z')
+            .addRange('0', '9')
+            .add('*')
+            .add('-')
+            .add('.')
+            .add('_')
+            .build();
+
+    /*
+     * PercentEncoders are immutable and thread safe, so one of each is shared by everything that needs it.
+     */
+    private static final PercentEncoder REG_NAME_ENCODER = newUtf8Encoder(REG_NAME_SAFE_CHARS);
+    private static final PercentEncoder PATH_ENCODER = newUtf8Encoder(PATH_SAFE_CHARS);
+    private static final PercentEncoder MATRIX_ENCODER = newUtf8Encoder(MATRIX_SAFE_CHARS);
+    private static final PercentEncoder UNSTRUCTURED_QUERY_ENCODER = newUtf8Encoder(UNSTRUCTURED_QUERY_SAFE_CHARS);
+    private static final PercentEncoder QUERY_PARAM_ENCODER = newUtf8Encoder(QUERY_PARAM_SAFE_CHARS);
+    private static final PercentEncoder FRAGMENT_ENCODER = newUtf8Encoder(FRAGMENT_SAFE_CHARS);
+    private static final PercentEncoder FORM_ENCODER = new PercentEncoder(FORM_SAFE_CHARS,
+            newUtf8CharsetEncoder(), true);
 
     /**
-     * @return a PercentEncoder for RFC 3986 'reg-name' characters
+     * @return the shared PercentEncoder for RFC 3986 'reg-name' characters
      */
     public static PercentEncoder getRegNameEncoder() {
-        return new PercentEncoder(REG_NAME_BIT_SET, UTF_8.newEncoder().onMalformedInput(REPLACE)
-                .onUnmappableCharacter(REPLACE));
+        return REG_NAME_ENCODER;
     }
 
     /**
-     * @return a PercentEncoder for RFC 3986 'pchar'
+     * @return the shared PercentEncoder for RFC 3986 'pchar'
      */
     public static PercentEncoder getPathEncoder() {
-        return new PercentEncoder(PATH_BIT_SET, UTF_8.newEncoder().onMalformedInput(REPLACE)
-                .onUnmappableCharacter(REPLACE));
+        return PATH_ENCODER;
     }
 
     /**
-     * @return a PercentEncoder for RFC 1738 S3.3 matrix params
+     * @return the shared PercentEncoder for RFC 1738 S3.3 matrix params
      */
     public static PercentEncoder getMatrixEncoder() {
-        return new PercentEncoder(MATRIX_BIT_SET, UTF_8.newEncoder().onMalformedInput(REPLACE)
-                .onUnmappableCharacter(REPLACE));
+        return MATRIX_ENCODER;
     }
 
     /**
-     * @return a PercentEncoder for RFC 3986 'query''
+     * @return the shared PercentEncoder for RFC 3986 'query''
      */
     public static PercentEncoder getUnstructuredQueryEncoder() {
-        return new PercentEncoder(UNSTRUCTURED_QUERY_BIT_SET, UTF_8.newEncoder().onMalformedInput(REPLACE)
-                .onUnmappableCharacter(REPLACE));
+        return UNSTRUCTURED_QUERY_ENCODER;
     }
 
     /**
-     * @return a PercentEncoder for HTML queries
+     * @return the shared PercentEncoder for HTML queries
      */
     public static PercentEncoder getQueryParamEncoder() {
-        return new PercentEncoder(QUERY_PARAM_BIT_SET, UTF_8.newEncoder().onMalformedInput(REPLACE)
-                .onUnmappableCharacter(REPLACE));
+        return QUERY_PARAM_ENCODER;
     }
 
     /**
-     * @return a PercentEncoder for fragments
+     * @return the shared PercentEncoder for fragments
      */
     public static PercentEncoder getFragmentEncoder() {
-        return new PercentEncoder(FRAGMENT_BIT_SET, UTF_8.newEncoder().onMalformedInput(REPLACE)
-                .onUnmappableCharacter(REPLACE));
+        return FRAGMENT_ENCODER;
+    }
+
+    /**
+     * The encoded form of each name and value in an application/x-www-form-urlencoded request body or query string.
+     * Decode with a PercentDecoder that treats '+' as space.
+     *
+     * @return the shared PercentEncoder for application/x-www-form-urlencoded names and values
+     * @see PercentDecoder#PercentDecoder(java.nio.charset.CharsetDecoder, boolean)
+     */
+    public static PercentEncoder getFormEncoder() {
+        return FORM_ENCODER;
     }
 
     private UrlPercentEncoders() {
     }
 
     /**
-     * Add code points for 'fragment' chars
+     * @param safeChars chars to not encode
+     * @return a PercentEncoder for UTF-8 that replaces malformed input
+     */
+    private static PercentEncoder newUtf8Encoder(SafeCharSet safeChars) {
+        return new PercentEncoder(safeChars, newUtf8CharsetEncoder());
+    }
+
+    /**
+     * @return a UTF-8 CharsetEncoder that replaces malformed input
+     */
+    private static CharsetEncoder newUtf8CharsetEncoder() {
+        return UTF_8.newEncoder().onMalformedInput(REPLACE).onUnmappableCharacter(REPLACE);
+    }
+
+    /**
+     * Add 'fragment' chars
      *
-     * @param fragmentBitSet bit set
+     * @param builder builder to add chars to
+     * @return builder
      */
-    private static void addFragment(BitSet fragmentBitSet) {
-        addPChar(fragmentBitSet);
-        fragmentBitSet.set((int) '/');
-        fragmentBitSet.set((int) '?');
+    private static SafeCharSet.Builder addFragment(SafeCharSet.Builder builder) {
+        return addPChar(builder)
+                .add('/')
+                .add('?');
     }
 
     /**
-     * Add code points for 'query' chars
+     * Add 'query' chars
      *
-     * @param queryBitSet bit set
+     * @param builder builder to add chars to
+     * @return builder
      */
-    private static void addQuery(BitSet queryBitSet) {
-        addPChar(queryBitSet);
-        queryBitSet.set((int) '/');
-        queryBitSet.set((int) '?');
+    private static SafeCharSet.Builder addQuery(SafeCharSet.Builder builder) {
+        return addPChar(builder)
+                .add('/')
+                .add('?');
     }
 
     /**
-     * Add code points for 'pchar' chars.
+     * Add 'pchar' chars.
      *
-     * @param bs bitset
+     * @param builder builder to add chars to
+     * @return builder
      */
-    private static void addPChar(BitSet bs) {
-        addUnreserved(bs);
-        addSubdelims(bs);
-        bs.set((int) ':');
-        bs.set((int) '@');
+    private static SafeCharSet.Builder addPChar(SafeCharSet.Builder builder) {
+        return addSubdelims(addUnreserved(builder))
+                .add(':')
+                .add('@');
     }
 
     /**
-     * Add codepoints for 'unreserved' chars
+     * Add 'unreserved' chars
      *
-     * @param bs bitset to add codepoints to
-     */
-    private static void addUnreserved(BitSet bs) {
-
-        for (int i = 'a'; i <= 'z'; i++) {
-            bs.set(i);
-        }
-        for (int i = 'A'; i <= 'Z'; i++) {
-            bs.set(i);
-        }
-        for (int i = '0'; i <= '9'; i++) {
-            bs.set(i);
-        }
-        bs.set((int) '-');
-        bs.set((int) '.');
-        bs.set((int) '_');
-        bs.set((int) '~');
+     * @param builder builder to add chars to
+     * @return builder
+     */
+    private static SafeCharSet.Builder addUnreserved(SafeCharSet.Builder builder) {
+        return builder
+                .addRange('a', 'z')
+                .addRange('A', 'Z')
+                .addRange('0', '9')
+                .add('-')
+                .add('.')
+                .add('_')
+                .add('~');
     }
 
     /**
-     * Add codepoints for 'sub-delims' chars
+     * Add 'sub-delims' chars
      *
-     * @param bs bitset to add codepoints to
-     */
-    private static void addSubdelims(BitSet bs) {
-        bs.set((int) '!');
-        bs.set((int) '$');
-        bs.set((int) '&');
-        bs.set((int) '\'');
-        bs.set((int) '(');
-        bs.set((int) ')');
-        bs.set((int) '*');
-        bs.set((int) '+');
-        bs.set((int) ',');
-        bs.set((int) ';');
-        bs.set((int) '=');
+     * @param builder builder to add chars to
+     * @return builder
+     */
+    private static SafeCharSet.Builder addSubdelims(SafeCharSet.Builder builder) {
+        return builder
+                .add('!')
+                .add('$')
+                .add('&')
+                .add('\'')
+                .add('(')
+                .add(')')
+                .add('*')
+                .add('+')
+                .add(',')
+                .add(';')
+                .add('=');
     }
 }
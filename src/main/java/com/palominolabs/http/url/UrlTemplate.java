@@ -0,0 +1,386 @@
+package com.palominolabs.http.url;
+
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static com.palominolabs.http.url.UrlPercentEncoders.getFragmentEncoder;
+import static com.palominolabs.http.url.UrlPercentEncoders.getMatrixEncoder;
+import static com.palominolabs.http.url.UrlPercentEncoders.getPathEncoder;
+import static com.palominolabs.http.url.UrlPercentEncoders.getQueryParamEncoder;
+
+/**
+ * A URL with variable path segments, matrix param values and query param values, compiled once and then expanded
+ * with different values as many times as needed, e.g. "https://api.example.com/v2/users/{id}/orders?page={page}".
+ *
+ * Everything other than the variables (scheme, host, port, static path segments, param names, etc.) is encoded when
+ * the template is built, using the same rules as {@link UrlBuilder}. Expanding the template only encodes the variable
+ * values, and writes the result into a buffer of exactly the right size. The expanded URL is the same string that an
+ * equivalent UrlBuilder would produce.
+ *
+ * Templates are immutable and thread safe.
+ */
+@Immutable
+public final class UrlTemplate {
+
+    private static final PercentEncoder PATH_ENCODER = getPathEncoder();
+    private static final PercentEncoder MATRIX_ENCODER = getMatrixEncoder();
+    private static final PercentEncoder QUERY_PARAM_ENCODER = getQueryParamEncoder();
+    private static final PercentEncoder FRAGMENT_ENCODER = getFragmentEncoder();
+
+    /**
+     * Encoded text before each variable, followed by the encoded text after the last variable
+     */
+    private final String[] literals;
+    /**
+     * Encoder for each variable's values
+     */
+    private final PercentEncoder[] encoders;
+    private final List<String> variableNames;
+    /**
+     * Total length of the literals
+     */
+    private final int literalLength;
+
+    private UrlTemplate(String[] literals, PercentEncoder[] encoders, List<String> variableNames) {
+        this.literals = literals;
+        this.encoders = encoders;
+        this.variableNames = variableNames;
+
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * @param scheme scheme (e.g. http)
+     * @param host   host in any of the syntaxes accepted by {@link UrlBuilder#forHost(String, String)}
+     * @return a builder for a template with no port
+     */
+    @Nonnull
+    public static Builder forHost(@Nonnull String scheme, @Nonnull String host) {
+        return new Builder(scheme, host, null);
+    }
+
+    /**
+     * @param scheme scheme (e.g. http)
+     * @param host   host in any of the syntaxes accepted by {@link UrlBuilder#forHost(String, String)}
+     * @param port   port
+     * @return a builder for a template
+     */
+    @Nonnull
+    public static Builder forHost(@Nonnull String scheme, @Nonnull String host, int port) {
+        return new Builder(scheme, host, port);
+    }
+
+    /**
+     * @return the names of the variables, in the order that their values must be passed to {@link
+     * UrlTemplate#expand(String...)}
+     */
+    @Nonnull
+    public List<String> getVariableNames() {
+        return variableNames;
+    }
+
+    /**
+     * Encode the values of the variables and produce the URL string.
+     *
+     * @param values one value per variable, in the order of {@link UrlTemplate#getVariableNames()}
+     * @return a well-formed URL string
+     * @throws CharacterCodingException if character encoding fails and the encoder is configured to report errors
+     * @throws IllegalArgumentException if the number of values is not the number of variables
+     */
+    @Nonnull
+    public String expand(@Nonnull String... values) throws CharacterCodingException {
+        StringBuilder buf = new StringBuilder(expandedLength(values));
+
+        for (int i = 0; i < encoders.length; i++) {
+            buf.append(literals[i]);
+            encoders[i].encodeTo(values[i], buf);
+        }
+        buf.append(literals[encoders.length]);
+
+        return buf.toString();
+    }
+
+    /**
+     * Calculate the exact length of the string that {@link UrlTemplate#expand(String...)} would produce for the values,
+     * without producing it.
+     *
+     * @param values one value per variable, in the order of {@link UrlTemplate#getVariableNames()}
+     * @return the length of the expanded URL string
+     * @throws CharacterCodingException if character encoding fails and the encoder is configured to report errors
+     * @throws IllegalArgumentException if the number of values is not the number of variables
+     */
+    public int expandedLength(@Nonnull String... values) throws CharacterCodingException {
+        if (values.length != encoders.length) {
+            throw new IllegalArgumentException(
+                "Expected " + encoders.length + " values for variables " + variableNames + " but got " + values.length);
+        }
+
+        int length = literalLength;
+        for (int i = 0; i < encoders.length; i++) {
+            length += encoders[i].encodedLength(values[i]);
+        }
+        return length;
+    }
+
+    /**
+     * @return the encoded template with each variable shown as "{name}"
+     */
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder(literalLength);
+        for (int i = 0; i < encoders.length; i++) {
+            buf.append(literals[i]).append('{').append(variableNames.get(i)).append('}');
+        }
+        return buf.append(literals[encoders.length]).toString();
+    }
+
+    /**
+     * Builder for UrlTemplate. Path segments and matrix params are kept in the order added, as are query params, just
+     * as with {@link UrlBuilder}.
+     */
+    @NotThreadSafe
+    public static final class Builder {
+
+        @Nonnull
+        private final String scheme;
+
+        @Nonnull
+        private final String host;
+
+        @Nullable
+        private final Integer port;
+
+        private final List<Part> pathParts = new ArrayList<>();
+
+        private final List<Part> queryParts = new ArrayList<>();
+
+        @Nullable
+        private String fragment;
+
+        private boolean forceTrailingSlash = false;
+
+        private Builder(@Nonnull String scheme, @Nonnull String host, @Nullable Integer port) {
+            this.scheme = scheme;
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Add a static path segment.
+         *
+         * @param segment a path segment
+         * @return this
+         */
+        @Nonnull
+        public Builder pathSegment(@Nonnull String segment) {
+            pathParts.add(c -> {
+                c.literal.append('/');
+                PATH_ENCODER.encodeTo(segment, c.literal);
+            });
+            return this;
+        }
+
+        /**
+         * Add a path segment whose value is a variable.
+         *
+         * @param variableName name of the variable
+         * @return this
+         */
+        @Nonnull
+        public Builder pathVariable(@Nonnull String variableName) {
+            pathParts.add(c -> {
+                c.literal.append('/');
+                c.variable(variableName, PATH_ENCODER);
+            });
+            return this;
+        }
+
+        /**
+         * Add a static matrix param to the last added path segment. If no segments have been added, the param will be
+         * added to the root.
+         *
+         * @param name  param name
+         * @param value param value
+         * @return this
+         */
+        @Nonnull
+        public Builder matrixParam(@Nonnull String name, @Nonnull String value) {
+            addMatrixName(name);
+            pathParts.add(c -> MATRIX_ENCODER.encodeTo(value, c.literal));
+            return this;
+        }
+
+        /**
+         * Add a matrix param whose value is a variable to the last added path segment. If no segments have been added,
+         * the param will be added to the root.
+         *
+         * @param name         param name
+         * @param variableName name of the variable
+         * @return this
+         */
+        @Nonnull
+        public Builder matrixVariable(@Nonnull String name, @Nonnull String variableName) {
+            addMatrixName(name);
+            pathParts.add(c -> c.variable(variableName, MATRIX_ENCODER));
+            return this;
+        }
+
+        private void addMatrixName(String name) {
+            if (pathParts.isEmpty()) {
+                // an empty path segment represents a matrix param applied to the root
+                pathSegment("");
+            }
+            pathParts.add(c -> {
+                c.literal.append(';');
+                MATRIX_ENCODER.encodeTo(name, c.literal);
+                c.literal.append('=');
+            });
+        }
+
+        /**
+         * Add a static HTML query parameter. Query parameters will be encoded in the order added.
+         *
+         * @param name  param name
+         * @param value param value
+         * @return this
+         */
+        @Nonnull
+        public Builder queryParam(@Nonnull String name, @Nonnull String value) {
+            queryParts.add(c -> {
+                QUERY_PARAM_ENCODER.encodeTo(name, c.literal);
+                c.literal.append('=');
+                QUERY_PARAM_ENCODER.encodeTo(value, c.literal);
+            });
+            return this;
+        }
+
+        /**
+         * Add a static HTML query parameter with no value.
+         *
+         * @param name param name
+         * @return this
+         * @see UrlBuilder#queryParam(String)
+         */
+        @Nonnull
+        public Builder queryParam(@Nonnull String name) {
+            queryParts.add(c -> QUERY_PARAM_ENCODER.encodeTo(name, c.literal));
+            return this;
+        }
+
+        /**
+         * Add an HTML query parameter whose value is a variable. Query parameters will be encoded in the order added.
+         *
+         * @param name         param name
+         * @param variableName name of the variable
+         * @return this
+         */
+        @Nonnull
+        public Builder queryVariable(@Nonnull String name, @Nonnull String variableName) {
+            queryParts.add(c -> {
+                QUERY_PARAM_ENCODER.encodeTo(name, c.literal);
+                c.literal.append('=');
+                c.variable(variableName, QUERY_PARAM_ENCODER);
+            });
+            return this;
+        }
+
+        /**
+         * Set the fragment.
+         *
+         * @param fragment fragment string
+         * @return this
+         */
+        @Nonnull
+        public Builder fragment(@Nonnull String fragment) {
+            this.fragment = fragment;
+            return this;
+        }
+
+        /**
+         * Force the expanded URL to have a trailing slash at the end of the path.
+         *
+         * @return this
+         */
+        @Nonnull
+        public Builder forceTrailingSlash() {
+            forceTrailingSlash = true;
+            return this;
+        }
+
+        /**
+         * Encode the static parts of the template.
+         *
+         * @return a new UrlTemplate
+         * @throws CharacterCodingException if character encoding fails and the encoder is configured to report errors
+         */
+        @Nonnull
+        public UrlTemplate build() throws CharacterCodingException {
+            Compiler c = new Compiler();
+
+            c.literal.append(scheme).append("://").append(UrlBuilder.encodeHost(host));
+            if (port != null) {
+                c.literal.append(':').append(port);
+            }
+
+            for (Part part : pathParts) {
+                part.compile(c);
+            }
+
+            if (forceTrailingSlash) {
+                c.literal.append('/');
+            }
+
+            for (int i = 0; i < queryParts.size(); i++) {
+                c.literal.append(i == 0 ? '?' : '&');
+                queryParts.get(i).compile(c);
+            }
+
+            if (fragment != null) {
+                c.literal.append('#');
+                FRAGMENT_ENCODER.encodeTo(fragment, c.literal);
+            }
+
+            return c.finish();
+        }
+    }
+
+    /**
+     * A component of a template, compiled into literal text and variables when the template is built
+     */
+    private interface Part {
+        void compile(Compiler compiler) throws CharacterCodingException;
+    }
+
+    /**
+     * Accumulates literal text between variables
+     */
+    private static final class Compiler {
+        private final StringBuilder literal = new StringBuilder();
+        private final List<String> literals = new ArrayList<>();
+        private final List<PercentEncoder> encoders = new ArrayList<>();
+        private final List<String> variableNames = new ArrayList<>();
+
+        void variable(String name, PercentEncoder encoder) {
+            literals.add(literal.toString());
+            literal.setLength(0);
+            encoders.add(encoder);
+            variableNames.add(name);
+        }
+
+        UrlTemplate finish() {
+            literals.add(literal.toString());
+            return new UrlTemplate(literals.toArray(new String[0]), encoders.toArray(new PercentEncoder[0]),
+                Collections.unmodifiableList(variableNames));
+        }
+    }
+}
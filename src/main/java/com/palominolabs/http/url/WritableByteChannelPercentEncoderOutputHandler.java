@@ -0,0 +1,86 @@
+package com.palominolabs.http.url;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static com.palominolabs.http.url.ByteArrayPercentEncoderOutputHandler.toAsciiByte;
+
+/**
+ * A PercentEncoderHandler implementation that writes US-ASCII bytes to a {@link WritableByteChannel} through a fixed
+ * size buffer.
+ *
+ * Since handler methods can't throw checked exceptions, any IOException from the channel is wrapped in an {@link
+ * UncheckedIOException}, which {@link PercentEncoder#encode(java.io.Reader, WritableByteChannel)} unwraps.
+ */
+@NotThreadSafe
+final class WritableByteChannelPercentEncoderOutputHandler implements PercentEncoderOutputHandler {
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buf;
+
+    /**
+     * @param channel    blocking channel to write output to
+     * @param bufferSize number of bytes to buffer before writing to the channel. Must be at least 3.
+     */
+    WritableByteChannelPercentEncoderOutputHandler(@Nonnull WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        buf = ByteBuffer.allocate(bufferSize);
+    }
+
+    @Override
+    public void onOutputChar(char c) {
+        if (!buf.hasRemaining()) {
+            flush();
+        }
+        buf.put(toAsciiByte(c));
+    }
+
+    @Override
+    public void onOutputChars(@Nonnull CharSequence cs, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!buf.hasRemaining()) {
+                flush();
+            }
+            buf.put(toAsciiByte(cs.charAt(i)));
+        }
+    }
+
+    @Override
+    public void onOutputChars(@Nonnull char[] chars, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (!buf.hasRemaining()) {
+                flush();
+            }
+            buf.put(toAsciiByte(chars[i]));
+        }
+    }
+
+    @Override
+    public void onOutputTriple(char highHexDigit, char lowHexDigit) {
+        if (buf.remaining() < 3) {
+            flush();
+        }
+        buf.put((byte) '%');
+        buf.put((byte) highHexDigit);
+        buf.put((byte) lowHexDigit);
+    }
+
+    /**
+     * Write any buffered bytes to the channel.
+     */
+    void flush() {
+        buf.flip();
+        try {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buf.clear();
+    }
+}
@@ -0,0 +1,96 @@
+package com.palominolabs.http.url;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A PercentEncoderHandler implementation that writes to a {@link Writer} through a fixed size buffer, so that output of
+ * any length can be written without calling the Writer for each char.
+ *
+ * Since handler methods can't throw checked exceptions, any IOException from the Writer is wrapped in an {@link
+ * UncheckedIOException}, which {@link PercentEncoder#encode(java.io.Reader, Writer)} unwraps.
+ */
+@NotThreadSafe
+final class WriterPercentEncoderOutputHandler implements PercentEncoderOutputHandler {
+
+    private final Writer writer;
+    private final char[] buf;
+    private int count;
+
+    /**
+     * @param writer     writer to write output to
+     * @param bufferSize number of chars to buffer before writing to the writer. Must be at least 3.
+     */
+    WriterPercentEncoderOutputHandler(@Nonnull Writer writer, int bufferSize) {
+        this.writer = writer;
+        buf = new char[bufferSize];
+    }
+
+    @Override
+    public void onOutputChar(char c) {
+        if (count == buf.length) {
+            flush();
+        }
+        buf[count++] = c;
+    }
+
+    @Override
+    public void onOutputChars(@Nonnull CharSequence cs, int start, int end) {
+        int i = start;
+        while (i < end) {
+            if (count == buf.length) {
+                flush();
+            }
+            int copyEnd = Math.min(end, i + buf.length - count);
+            if (cs instanceof String) {
+                ((String) cs).getChars(i, copyEnd, buf, count);
+                count += copyEnd - i;
+                i = copyEnd;
+            } else {
+                while (i < copyEnd) {
+                    buf[count++] = cs.charAt(i++);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onOutputChars(@Nonnull char[] chars, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            if (count == buf.length) {
+                flush();
+            }
+            int copyLength = Math.min(end - i, buf.length - count);
+            System.arraycopy(chars, i, buf, count, copyLength);
+            count += copyLength;
+            i += copyLength;
+        }
+    }
+
+    @Override
+    public void onOutputTriple(char highHexDigit, char lowHexDigit) {
+        if (buf.length - count < 3) {
+            flush();
+        }
+        buf[count++] = '%';
+        buf[count++] = highHexDigit;
+        buf[count++] = lowHexDigit;
+    }
+
+    /**
+     * Write any buffered chars to the writer.
+     */
+    void flush() {
+        try {
+            writer.write(buf, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+}
@@ -0,0 +1,140 @@
+package com.palominolabs.http.url;
+
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.MalformedInputException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.CodingErrorAction.REPORT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class CachingPercentEncoderTest {
+
+    private final CachingPercentEncoder cache =
+        new CachingPercentEncoder(UrlPercentEncoders.getQueryParamEncoder(), 100, 20);
+
+    @Test
+    public void testHitsAndMisses() throws CharacterCodingException {
+        String first = cache.encode("sort by");
+        assertEquals("sort%20by", first);
+        assertSame(first, cache.encode("sort by"));
+        assertSame(first, cache.encode(new String("sort by")));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLongInputNotCached() throws CharacterCodingException {
+        assertEquals("a%20b%20c%20d%20e%20f%20g%20h%20i%20j%20k", cache.encode("a b c d e f g h i j k"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void testNonStringInputNotCached() throws CharacterCodingException {
+        assertEquals("a%20b", cache.encode(new StringBuilder("a b")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEncodeTo() throws CharacterCodingException {
+        StringBuilder buf = new StringBuilder("x=");
+        cache.encodeTo("a b", buf);
+        cache.encodeTo("a b", buf);
+        cache.encodeTo(new StringBuilder("c d"), buf);
+        assertEquals("x=a%20ba%20bc%20d", buf.toString());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testSizeIsBounded() throws CharacterCodingException {
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals("v%20" + i, cache.encode("v " + i));
+        }
+        assertTrue(cache.size() <= 100, "size " + cache.size());
+    }
+
+    @Test
+    public void testSizeIsBoundedWhenSegmentsDontDivideEvenly() throws CharacterCodingException {
+        // 1000 entries don't split evenly into 16 segments
+        CachingPercentEncoder large = new CachingPercentEncoder(UrlPercentEncoders.getQueryParamEncoder(), 1000, 20);
+        for (int i = 0; i < 100_000; i++) {
+            large.encode("v " + i);
+        }
+        assertTrue(large.size() <= 1000, "size " + large.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws CharacterCodingException {
+        CachingPercentEncoder tiny = new CachingPercentEncoder(UrlPercentEncoders.getQueryParamEncoder(), 2, 20);
+        tiny.encode("a");
+        tiny.encode("b");
+        // makes b the least recently used
+        tiny.encode("a");
+        tiny.encode("c");
+        tiny.encode("a");
+        assertEquals(2, tiny.getHitCount());
+        tiny.encode("b");
+        assertEquals(2, tiny.getHitCount());
+        assertEquals(2, tiny.size());
+    }
+
+    @Test
+    public void testClear() throws CharacterCodingException {
+        cache.encode("a");
+        cache.clear();
+        assertEquals(0, cache.size());
+        cache.encode("a");
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testErrorsNotCached() {
+        PercentEncoder reporting = new PercentEncoder(UrlPercentEncoders.getQueryParamEncoder().getSafeChars(),
+            UTF_8.newEncoder().onMalformedInput(REPORT).onUnmappableCharacter(REPORT));
+        CachingPercentEncoder reportingCache = new CachingPercentEncoder(reporting, 10, 10);
+        assertThrows(MalformedInputException.class, () -> reportingCache.encode("a\udd1e"));
+        assertEquals(0, reportingCache.size());
+    }
+
+    @Test
+    public void testInvalidSizes() {
+        PercentEncoder encoder = UrlPercentEncoders.getQueryParamEncoder();
+        assertThrows(IllegalArgumentException.class, () -> new CachingPercentEncoder(encoder, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new CachingPercentEncoder(encoder, 10, -1));
+    }
+
+    @Test
+    public void testConcurrentEncoding() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        int value = i % 300;
+                        assertEquals("v%20" + value, cache.encode("v " + value));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(40_000, cache.getHitCount() + cache.getMissCount());
+    }
+}
@@ -0,0 +1,56 @@
+package com.palominolabs.http.url;
+
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class IpLiteralsTest {
+
+    @Test
+    public void testIpv4() {
+        String[] valid = {"0.0.0.0", "127.0.0.1", "255.255.255.255", "1.02.003.4", "000.000.000.000"};
+        for (String host : valid) {
+            assertTrue(IpLiterals.isIpLiteral(host), host);
+        }
+
+        String[] invalid = {"", "1.2.3", "1.2.3.4.5", "256.1.1.1", "1.2.3.300", "1..2.3", ".1.2.3", "1.2.3.4.",
+            "0001.2.3.4", "1.2.3.a", "1.2.3.4 ", "a.b.c.d", "\u0661.2.3.4"};
+        for (String host : invalid) {
+            assertFalse(IpLiterals.isIpLiteral(host), host);
+        }
+    }
+
+    @Test
+    public void testIpv4SameAsOldPattern() {
+        Pattern pattern = Pattern.compile(
+            "\\A(25[0-5]|2[0-4]\\d|[0-1]?\\d?\\d)(\\.(25[0-5]|2[0-4]\\d|[0-1]?\\d?\\d)){3}\\z");
+        for (int i = 0; i < 1000; i++) {
+            String octet = Integer.toString(i);
+            String[] hosts = {octet + ".0.0.0", "0." + octet + ".0.0", "1.2.3." + octet, "1.2.3.0" + octet};
+            for (String host : hosts) {
+                assertEquals(pattern.matcher(host).matches(), IpLiterals.isIpLiteral(host), host);
+            }
+        }
+    }
+
+    @Test
+    public void testIpv6() {
+        String[] valid = {"[::]", "[::1]", "[1::]", "[1:2:3:4:5:6:7:8]", "[2001:DB8:0:0:8:800:200C:417A]",
+            "[2001:db8::8:800:200c:417a]", "[ff01::101]", "[1:2:3:4:5:6:7::]", "[::2:3:4:5:6:7:8]",
+            "[1:2:3:4:5:6:1.2.3.4]", "[::ffff:129.144.52.38]", "[::13.1.68.3]", "[1::5:1.2.3.4]", "[0000:ffff::]"};
+        for (String host : valid) {
+            assertTrue(IpLiterals.isIpLiteral(host), host);
+        }
+
+        String[] invalid = {"[]", "[:]", "[:::]", "[1:2:3:4:5:6:7]", "[1:2:3:4:5:6:7:8:9]", "[1::2::3]", "[:1::2]",
+            "[1::2:]", "[1:2:3:4:5:6:7:8::]", "[::1:2:3:4:5:6:7:8]", "[12345::]", "[g::]", "[1:2:3:4:5:6:7:1.2.3.4]",
+            "[1:2:3:4:5:1.2.3.4]", "[::1.2.3]", "[::1.2.3.256]", "[::1.2.3.4:5]", "[1.2.3.4]", "::1", "[::1",
+            "[fe80::1%25eth0]", "[v1.fe80::a]"};
+        for (String host : invalid) {
+            assertFalse(IpLiterals.isIpLiteral(host), host);
+        }
+    }
+}
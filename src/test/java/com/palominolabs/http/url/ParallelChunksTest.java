@@ -0,0 +1,63 @@
+package com.palominolabs.http.url;
+
+import java.io.UncheckedIOException;
+import java.nio.charset.MalformedInputException;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class ParallelChunksTest {
+
+    private ForkJoinPool pool;
+
+    @BeforeEach
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testBoundariesEvenSplit() {
+        assertArrayEquals(new int[]{0, 3, 6, 9, 10}, ParallelChunks.boundaries(10, 3, i -> true));
+    }
+
+    @Test
+    public void testBoundariesShortInput() {
+        assertArrayEquals(new int[]{0, 2}, ParallelChunks.boundaries(2, 3, i -> true));
+        assertArrayEquals(new int[]{0, 0}, ParallelChunks.boundaries(0, 3, i -> true));
+    }
+
+    @Test
+    public void testBoundariesSkipUnsafeIndexes() {
+        assertArrayEquals(new int[]{0, 4, 8, 10}, ParallelChunks.boundaries(10, 3, i -> i % 4 == 0));
+        assertArrayEquals(new int[]{0, 10}, ParallelChunks.boundaries(10, 3, i -> false));
+    }
+
+    @Test
+    public void testConvertJoinsInOrder() {
+        String input = "abcdefghij";
+        int[] boundaries = ParallelChunks.boundaries(input.length(), 2, i -> true);
+        assertEquals("ABCDEFGHIJ",
+            ParallelChunks.convert(pool, boundaries, (start, end) -> input.substring(start, end).toUpperCase()));
+    }
+
+    @Test
+    public void testConvertWrapsCodingExceptions() {
+        int[] boundaries = ParallelChunks.boundaries(10, 2, i -> true);
+        assertThrows(UncheckedIOException.class, () -> ParallelChunks.convert(pool, boundaries, (start, end) -> {
+            if (start == 4) {
+                throw new MalformedInputException(1);
+            }
+            return "x";
+        }));
+    }
+}
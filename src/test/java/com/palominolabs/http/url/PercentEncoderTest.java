@@ -4,17 +4,42 @@
 
 package com.palominolabs.http.url;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URLEncoder;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
 import java.nio.charset.MalformedInputException;
 import java.nio.charset.UnmappableCharacterException;
+import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import static java.nio.charset.CodingErrorAction.IGNORE;
 import static java.nio.charset.CodingErrorAction.REPLACE;
+import static java.nio.charset.CodingErrorAction.REPORT;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_16BE;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public final class PercentEncoderTest {
 
@@ -85,4 +110,455 @@ public final class PercentEncoderTest {
         // musical G clef: 1d11e, has to be represented in surrogate pair form
         assertEquals("clef%D8%34%DD%1E", alnum16.encode("clef\ud834\udd1e"));
     }
+
+    @Test
+    public void testEncodeLongSafeRuns() throws CharacterCodingException {
+        assertEquals("abcdefghij%20klmnopqrst%20%20uvwxyz", alnum.encode("abcdefghij klmnopqrst  uvwxyz"));
+    }
+
+    @Test
+    public void testEncodeLongSafeRunsWithCustomHandler() throws CharacterCodingException {
+        StringBuilder buf = new StringBuilder();
+        alnum.encode("abcdefghij klmnopqrst", buf::append);
+        assertEquals("abcdefghij%20klmnopqrst", buf.toString());
+    }
+
+    @Test
+    public void testEncodeUtf8TwoByte() throws CharacterCodingException {
+        assertEquals("caf%C3%A9", alnum.encode("caf\u00e9"));
+    }
+
+    @Test
+    public void testEncodeUtf8LoneLowSurrogateReplaced() throws CharacterCodingException {
+        assertEquals("a%3Fb", alnum.encode("a\udd1eb"));
+    }
+
+    @Test
+    public void testEncodeUtf8LoneLowSurrogateCustomReplacement() throws CharacterCodingException {
+        PercentEncoder pe = new PercentEncoder(new BitSet(), UTF_8.newEncoder().onMalformedInput(REPLACE)
+            .replaceWith(new byte[]{'x', 'y'}));
+        assertEquals("%78%79", pe.encode("\udd1e"));
+    }
+
+    @Test
+    public void testEncodeUtf8LoneLowSurrogateIgnored() throws CharacterCodingException {
+        PercentEncoder pe = new PercentEncoder(new BitSet(), UTF_8.newEncoder().onMalformedInput(IGNORE));
+        assertEquals("%61%62", pe.encode("a\udd1eb"));
+    }
+
+    @Test
+    public void testEncodeUtf8LoneLowSurrogateReported() {
+        PercentEncoder pe = new PercentEncoder(new BitSet(), UTF_8.newEncoder().onMalformedInput(REPORT));
+        MalformedInputException e = assertThrows(MalformedInputException.class, () -> pe.encode("a\udd1eb"));
+        assertEquals(1, e.getInputLength());
+    }
+
+    @Test
+    public void testEncodeUtf8UnpairedHighSurrogate() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> alnum.encode("a\ud834b"));
+        assertEquals("Invalid UTF-16: Char 1 is a high surrogate (\\ud834), but char 2 is not a low surrogate (\\u62)",
+            e.getMessage());
+    }
+
+    @Test
+    public void testEncodeUsesBulkHandlerMethods() throws CharacterCodingException {
+        StringBuilder calls = new StringBuilder();
+        alnum.encode("ab \u00e9cd", new PercentEncoderOutputHandler() {
+            @Override
+            public void onOutputChar(char c) {
+                calls.append("char(").append(c).append(')');
+            }
+
+            @Override
+            public void onOutputChars(CharSequence cs, int start, int end) {
+                calls.append("run(").append(cs, start, end).append(')');
+            }
+
+            @Override
+            public void onOutputTriple(char highHexDigit, char lowHexDigit) {
+                calls.append("triple(").append(highHexDigit).append(lowHexDigit).append(')');
+            }
+        });
+        assertEquals("run(ab)triple(20)triple(C3)triple(A9)run(cd)", calls.toString());
+    }
+
+    @Test
+    public void testEncodeToByteArray() throws CharacterCodingException {
+        ByteArrayPercentEncoderOutputHandler handler = new ByteArrayPercentEncoderOutputHandler(1);
+        alnum.encode("snowman \u2603", handler);
+        assertArrayEquals("snowman%20%E2%98%83".getBytes(US_ASCII), handler.getContents());
+        assertEquals(19, handler.length());
+        assertEquals(19, handler.asByteBuffer().remaining());
+
+        handler.reset();
+        alnum.encode("a b", handler);
+        assertArrayEquals("a%20b".getBytes(US_ASCII), handler.getContents());
+    }
+
+    @Test
+    public void testEncodeToHeapByteBuffer() throws CharacterCodingException {
+        ByteBuffer buf = ByteBuffer.allocate(32);
+        buf.put((byte) 'x');
+        alnum.encode("clef \ud834\udd1e", new ByteBufferPercentEncoderOutputHandler(buf));
+        buf.flip();
+        assertEquals("xclef%20%F0%9D%84%9E", US_ASCII.decode(buf).toString());
+    }
+
+    @Test
+    public void testEncodeToDirectByteBuffer() throws CharacterCodingException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(32);
+        alnum.encode("abc 123", new ByteBufferPercentEncoderOutputHandler(buf));
+        buf.flip();
+        assertEquals("abc%20123", US_ASCII.decode(buf).toString());
+    }
+
+    @Test
+    public void testEncodeToByteBufferOverflow() {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        assertThrows(BufferOverflowException.class,
+            () -> alnum.encode("abc 123", new ByteBufferPercentEncoderOutputHandler(buf)));
+    }
+
+    @Test
+    public void testEncodeToStringBuilder() throws CharacterCodingException {
+        StringBuilder buf = new StringBuilder("prefix/");
+        alnum.encodeTo("abc 123", buf);
+        assertEquals("prefix/abc%20123", buf.toString());
+    }
+
+    @Test
+    public void testEncodeToAppendable() throws IOException {
+        StringWriter writer = new StringWriter();
+        writer.write("prefix/");
+        alnum.encodeTo("snowman \u2603", writer);
+        assertEquals("prefix/snowman%20%E2%98%83", writer.toString());
+    }
+
+    @Test
+    public void testEncodeToAppendableThrowsIOException() {
+        IOException e = assertThrows(IOException.class, () -> alnum.encodeTo("abc", new Appendable() {
+            @Override
+            public Appendable append(CharSequence csq) throws IOException {
+                throw new IOException("nope");
+            }
+
+            @Override
+            public Appendable append(CharSequence csq, int start, int end) throws IOException {
+                throw new IOException("nope");
+            }
+
+            @Override
+            public Appendable append(char c) throws IOException {
+                throw new IOException("nope");
+            }
+        }));
+        assertEquals("nope", e.getMessage());
+    }
+
+    @Test
+    public void testUrlPercentEncodersAreShared() {
+        assertSame(UrlPercentEncoders.getPathEncoder(), UrlPercentEncoders.getPathEncoder());
+    }
+
+    @Test
+    public void testEncodeConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        // UTF-16 goes through a CharsetEncoder, so this exercises the per-thread encoder state
+                        assertEquals("clef%D8%34%DD%1E" + i, alnum16.encode("clef\ud834\udd1e" + i));
+                        assertEquals("snowman%E2%98%83" + i, alnum.encode("snowman\u2603" + i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEncodeAllSafeReturnsSameString() throws CharacterCodingException {
+        String input = "abcdef123";
+        assertSame(input, alnum.encode(input));
+    }
+
+    @Test
+    public void testEncodeAllSafeNonStringInput() throws CharacterCodingException {
+        assertEquals("abc", alnum.encode(new StringBuilder("abc")));
+    }
+
+    @Test
+    public void testEncodeEmpty() throws CharacterCodingException {
+        assertEquals("", alnum.encode(""));
+    }
+
+    @Test
+    public void testEncodedLength() throws CharacterCodingException {
+        String[] inputs = {"", "abc", "abc 123", "caf\u00e9", "snowman\u2603", "clef\ud834\udd1e", "a\udd1eb"};
+        for (String input : inputs) {
+            assertEquals(alnum.encode(input).length(), alnum.encodedLength(input), input);
+            assertEquals(alnum16.encode(input).length(), alnum16.encodedLength(input), input);
+        }
+    }
+
+    @Test
+    public void testEncodeSingleByteCharset() throws CharacterCodingException {
+        PercentEncoder encoder = new PercentEncoder(alnum.getSafeChars(), ISO_8859_1.newEncoder());
+        assertEquals("caf%E9%20%3F", encoder.encode("caf\u00e9 ?"));
+        assertEquals(12, encoder.encodedLength("caf\u00e9 ?"));
+
+        PercentEncoder windows1252 = new PercentEncoder(alnum.getSafeChars(),
+            Charset.forName("windows-1252").newEncoder());
+        assertEquals("%80%E9", windows1252.encode("\u20ac\u00e9"));
+    }
+
+    @Test
+    public void testEncodeSingleByteCharsetUnmappableReplaced() throws CharacterCodingException {
+        PercentEncoder encoder = new PercentEncoder(alnum.getSafeChars(), ISO_8859_1.newEncoder()
+            .onMalformedInput(REPLACE).onUnmappableCharacter(REPLACE));
+        // a surrogate pair is a single unmappable char
+        assertEquals("a%3Fb%3Fc%3Fd", encoder.encode("a\u20acb\ud834\udd1ec\udd1ed"));
+        assertEquals(13, encoder.encodedLength("a\u20acb\ud834\udd1ec\udd1ed"));
+    }
+
+    @Test
+    public void testEncodeSingleByteCharsetUnmappableIgnored() throws CharacterCodingException {
+        PercentEncoder encoder = new PercentEncoder(alnum.getSafeChars(), ISO_8859_1.newEncoder()
+            .onMalformedInput(IGNORE).onUnmappableCharacter(IGNORE));
+        assertEquals("abc", encoder.encode("a\u20acb\ud834\udd1ec"));
+        assertEquals(3, encoder.encodedLength("a\u20acb\ud834\udd1ec"));
+    }
+
+    @Test
+    public void testEncodeSingleByteCharsetUnmappableReported() {
+        PercentEncoder encoder = new PercentEncoder(alnum.getSafeChars(), ISO_8859_1.newEncoder()
+            .onMalformedInput(REPORT).onUnmappableCharacter(REPORT));
+        assertEquals(1, assertThrows(UnmappableCharacterException.class, () -> encoder.encode("a\u20ac"))
+            .getInputLength());
+        assertEquals(2, assertThrows(UnmappableCharacterException.class, () -> encoder.encode("a\ud834\udd1e"))
+            .getInputLength());
+        assertEquals(1, assertThrows(MalformedInputException.class, () -> encoder.encode("a\udd1e"))
+            .getInputLength());
+        assertThrows(UnmappableCharacterException.class, () -> encoder.encodedLength("a\u20ac"));
+    }
+
+    @Test
+    public void testEncodeReaderToWriter() throws IOException {
+        String input = repeat("abc def\u00e9\ud834\udd1e", 2000);
+        StringWriter writer = new StringWriter();
+        alnum.encode(new StringReader(input), writer);
+        assertEquals(alnum.encode(input), writer.toString());
+    }
+
+    @Test
+    public void testEncodeReaderSurrogatePairSplitAcrossReads() throws IOException {
+        StringWriter writer = new StringWriter();
+        alnum.encode(new OneCharReader("a\ud834\udd1eb"), writer);
+        assertEquals("a%F0%9D%84%9Eb", writer.toString());
+    }
+
+    @Test
+    public void testEncodeReaderEndsWithHighSurrogate() {
+        assertThrows(IllegalArgumentException.class,
+            () -> alnum.encode(new OneCharReader("ab\ud834"), new StringWriter()));
+    }
+
+    @Test
+    public void testEncodeReaderToChannel() throws IOException {
+        String input = repeat("abc def\u00e9\ud834\udd1e", 2000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        alnum.encode(new StringReader(input), Channels.newChannel(bytes));
+        assertEquals(alnum.encode(input), new String(bytes.toByteArray(), US_ASCII));
+    }
+
+    @Test
+    public void testEncodeSpaceAsPlus() throws CharacterCodingException {
+        PercentEncoder encoder = new PercentEncoder(alnum.getSafeChars(), UTF_8.newEncoder(), true);
+        assertEquals("a+b%2Bc++%C3%A9", encoder.encode("a b+c  \u00e9"));
+        assertEquals(15, encoder.encodedLength("a b+c  \u00e9"));
+    }
+
+    @Test
+    public void testEncodeSpaceAsPlusNonUtf8() throws CharacterCodingException {
+        PercentEncoder encoder = new PercentEncoder(alnum.getSafeChars(), UTF_16BE.newEncoder(), true);
+        assertEquals("a+%00%2B", encoder.encode("a +"));
+        assertEquals(8, encoder.encodedLength("a +"));
+    }
+
+    @Test
+    public void testFormEncoderMatchesUrlEncoder() throws Exception {
+        String input = "a b+c&d=e/f?g#h%i*j-k.l_m~n\u00e9\u2603\ud834\udd1e";
+        assertEquals(URLEncoder.encode(input, "UTF-8"), UrlPercentEncoders.getFormEncoder().encode(input));
+    }
+
+    @Test
+    public void testEncodedLengthUnpairedHighSurrogate() {
+        assertThrows(IllegalArgumentException.class, () -> alnum.encodedLength("a\ud834"));
+    }
+
+    @Test
+    public void testIsEncodedCanonical() throws CharacterCodingException {
+        String encoded = alnum.encode("a b\u00e9\u2603\ud834\udd1e");
+        assertTrue(alnum.isEncoded(encoded));
+        assertTrue(alnum.isEncoded(""));
+        assertTrue(alnum.isEncoded("abc"));
+    }
+
+    @Test
+    public void testIsEncodedNonCanonical() {
+        // unsafe char
+        assertFalse(alnum.isEncoded("a b"));
+        // lowercase hex
+        assertFalse(alnum.isEncoded("%c3%a9"));
+        // encoded safe char
+        assertFalse(alnum.isEncoded("%41"));
+        // invalid %-sequences
+        assertFalse(alnum.isEncoded("%zz"));
+        assertFalse(alnum.isEncoded("%2"));
+        // incomplete, overlong and surrogate UTF-8
+        assertFalse(alnum.isEncoded("%C3"));
+        assertFalse(alnum.isEncoded("%C0%A0"));
+        assertFalse(alnum.isEncoded("%ED%A0%80"));
+    }
+
+    @Test
+    public void testIsEncodedSpaceAsPlus() {
+        PercentEncoder form = UrlPercentEncoders.getFormEncoder();
+        assertTrue(form.isEncoded("a+b%2B"));
+        assertFalse(form.isEncoded("a%20b"));
+    }
+
+    @Test
+    public void testIsEncodedOtherCharsets() {
+        PercentEncoder iso = new PercentEncoder(alnum.getSafeChars(), ISO_8859_1.newEncoder());
+        assertTrue(iso.isEncoded("caf%E9"));
+        assertTrue(iso.isEncoded("caf%C3%A9"));
+        assertFalse(iso.isEncoded("caf%e9"));
+        assertFalse(iso.isEncoded("%41"));
+
+        assertTrue(alnum16.isEncoded("a%00%20"));
+        assertFalse(alnum16.isEncoded("a%20"));
+    }
+
+    @Test
+    public void testNormalizeCanonicalReturnsSameString() throws CharacterCodingException {
+        String encoded = "a%20b%C3%A9";
+        assertSame(encoded, alnum.normalize(encoded));
+
+        StringBuilder buf = new StringBuilder("x");
+        alnum.normalizeTo(encoded, buf);
+        assertEquals("x" + encoded, buf.toString());
+    }
+
+    @Test
+    public void testNormalizeNonCanonical() throws CharacterCodingException {
+        assertEquals("a%20b%25zz%C3%A9A", alnum.normalize("a b%zz%c3%a9%41"));
+        assertEquals("100%25", alnum.normalize("100%"));
+
+        StringBuilder buf = new StringBuilder();
+        UrlPercentEncoders.getFormEncoder().normalizeTo("a%20b+c", buf);
+        assertEquals("a+b+c", buf.toString());
+    }
+
+    @Test
+    public void testNormalizeMalformedReplaced() throws CharacterCodingException {
+        assertEquals("%EF%BF%BD", alnum.normalize("%FF"));
+    }
+
+    @Test
+    public void testNormalizeMalformedReported() {
+        PercentEncoder reporting = new PercentEncoder(alnum.getSafeChars(), UTF_8.newEncoder());
+        assertThrows(MalformedInputException.class, () -> reporting.normalize("%FF"));
+    }
+
+    @Test
+    public void testNormalizeConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                String thread = Integer.toString(t);
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        // non-canonical input, so each call decodes with the per-thread PercentDecoder
+                        assertEquals("a%20b%C3%A9" + thread + "x" + i, alnum.normalize("a b%c3%a9" + thread + "x" + i));
+                        assertEquals("clef%D8%34%DD%1E" + thread + "x" + i,
+                            alnum16.normalize("clef%d8%34%dd%1e" + thread + "x" + i));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEncodeParallel() throws CharacterCodingException {
+        String input = repeat("a b\u00e9\ud834\udd1e\u2603", 100);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // chunks of 3 chars would split surrogate pairs if split points weren't moved
+            assertEquals(alnum.encode(input), alnum.encodeParallel(input, pool, 0, 3));
+            assertEquals(alnum16.encode(input), alnum16.encodeParallel(input, pool, 0, 3));
+            assertEquals(alnum.encode(input), alnum.encodeParallel(input, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testEncodeParallelMalformedReported() {
+        PercentEncoder reporting = new PercentEncoder(alnum.getSafeChars(), UTF_8.newEncoder());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertThrows(MalformedInputException.class,
+                () -> reporting.encodeParallel(repeat("abc", 10) + "\udd1e" + repeat("abc", 10), pool, 0, 4));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            buf.append(s);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Returns one char per read, to exercise handling of input split across reads
+     */
+    private static final class OneCharReader extends Reader {
+        private final String input;
+        private int position;
+
+        OneCharReader(String input) {
+            this.input = input;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (position == input.length()) {
+                return -1;
+            }
+            cbuf[off] = input.charAt(position++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 }
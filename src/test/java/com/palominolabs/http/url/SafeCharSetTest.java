@@ -0,0 +1,99 @@
+package com.palominolabs.http.url;
+
+import java.util.BitSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public final class SafeCharSetTest {
+
+    @Test
+    public void testContainsAcrossMaskBoundaries() {
+        SafeCharSet set = SafeCharSet.builder()
+            .add((char) 0)
+            .add((char) 63)
+            .add((char) 64)
+            .add((char) 127)
+            .build();
+
+        for (int i = 0; i < 256; i++) {
+            assertEquals(i == 0 || i == 63 || i == 64 || i == 127, set.contains((char) i), "char " + i);
+        }
+    }
+
+    @Test
+    public void testNonAscii() {
+        SafeCharSet set = SafeCharSet.builder()
+            .add('a')
+            .add('\u00e9')
+            .add('\u2603')
+            .build();
+
+        assertTrue(set.contains('a'));
+        assertTrue(set.contains('\u00e9'));
+        assertTrue(set.contains('\u2603'));
+        assertFalse(set.contains('\u00e8'));
+        assertFalse(set.contains('\uffff'));
+    }
+
+    @Test
+    public void testAddRangeAndRemove() {
+        SafeCharSet set = SafeCharSet.builder()
+            .addRange('a', 'z')
+            .remove('m')
+            .build();
+
+        assertTrue(set.contains('a'));
+        assertTrue(set.contains('z'));
+        assertFalse(set.contains('m'));
+        assertFalse(set.contains('A'));
+    }
+
+    @Test
+    public void testOfBitSetIsCopied() {
+        BitSet bitSet = new BitSet();
+        bitSet.set('a');
+        SafeCharSet set = SafeCharSet.of(bitSet);
+        bitSet.set('b');
+
+        assertTrue(set.contains('a'));
+        assertFalse(set.contains('b'));
+    }
+
+    @Test
+    public void testToBuilderDoesNotModifyOriginal() {
+        SafeCharSet path = UrlPercentEncoders.getPathEncoder().getSafeChars();
+        SafeCharSet custom = path.toBuilder()
+            .remove(':')
+            .build();
+
+        assertTrue(path.contains(':'));
+        assertFalse(custom.contains(':'));
+        assertTrue(custom.contains('@'));
+    }
+
+    @Test
+    public void testToBitSetRoundTrip() {
+        SafeCharSet set = SafeCharSet.builder()
+            .addRange('0', '9')
+            .add('\u00e9')
+            .build();
+
+        assertEquals(set, SafeCharSet.of(set.toBitSet()));
+        assertEquals(set.hashCode(), SafeCharSet.of(set.toBitSet()).hashCode());
+        assertNotEquals(set, SafeCharSet.builder().addRange('0', '9').build());
+    }
+
+    @Test
+    public void testUrlPercentEncoderSets() {
+        SafeCharSet queryParam = UrlPercentEncoders.getQueryParamEncoder().getSafeChars();
+        assertTrue(queryParam.contains('?'));
+        assertFalse(queryParam.contains('='));
+        assertFalse(queryParam.contains('&'));
+        assertFalse(queryParam.contains('+'));
+        assertFalse(queryParam.contains(' '));
+    }
+}
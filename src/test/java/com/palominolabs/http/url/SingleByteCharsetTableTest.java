@@ -0,0 +1,87 @@
+package com.palominolabs.http.url;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.UnmappableCharacterException;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public final class SingleByteCharsetTableTest {
+
+    @Test
+    public void testMultiByteCharsetsHaveNoTable() {
+        assertNull(SingleByteCharsetTable.forCharset(UTF_8));
+        assertNull(SingleByteCharsetTable.forCharset(UTF_16BE));
+    }
+
+    @Test
+    public void testTableIsCached() {
+        assertSame(SingleByteCharsetTable.forCharset(ISO_8859_1), SingleByteCharsetTable.forCharset(ISO_8859_1));
+    }
+
+    @Test
+    public void testIso88591() {
+        SingleByteCharsetTable table = SingleByteCharsetTable.forCharset(ISO_8859_1);
+        assertNotNull(table);
+        assertEquals(0xE9, table.encode('\u00e9'));
+        assertEquals(SingleByteCharsetTable.UNMAPPABLE, table.encode('\u20ac'));
+        assertEquals('\u00e9', table.decode((byte) 0xE9));
+    }
+
+    @Test
+    public void testWindows1252() {
+        SingleByteCharsetTable table = SingleByteCharsetTable.forCharset(Charset.forName("windows-1252"));
+        assertNotNull(table);
+        assertEquals(0x80, table.encode('\u20ac'));
+        assertEquals('\u20ac', table.decode((byte) 0x80));
+    }
+
+    @Test
+    public void testMatchesCharset() throws CharacterCodingException {
+        for (Charset charset : new Charset[]{US_ASCII, ISO_8859_1, Charset.forName("windows-1252"),
+            Charset.forName("ISO-8859-15"), Charset.forName("KOI8-R")}) {
+            SingleByteCharsetTable table = SingleByteCharsetTable.forCharset(charset);
+            assertNotNull(table, charset.name());
+            CharsetEncoder encoder = charset.newEncoder();
+            CharsetDecoder decoder = charset.newDecoder();
+
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                if (Character.isSurrogate((char) c)) {
+                    continue;
+                }
+                int expected;
+                try {
+                    expected = encoder.encode(CharBuffer.wrap(new char[]{(char) c})).get() & 0xFF;
+                } catch (UnmappableCharacterException e) {
+                    expected = SingleByteCharsetTable.UNMAPPABLE;
+                }
+                assertEquals(expected, table.encode((char) c), charset.name() + " char " + c);
+            }
+
+            for (int b = 0; b < 256; b++) {
+                int expected;
+                try {
+                    expected = decoder.decode(ByteBuffer.wrap(new byte[]{(byte) b})).get();
+                } catch (MalformedInputException e) {
+                    expected = SingleByteCharsetTable.MALFORMED;
+                } catch (UnmappableCharacterException e) {
+                    expected = SingleByteCharsetTable.UNMAPPABLE;
+                }
+                assertEquals(expected, table.decode((byte) b), charset.name() + " byte " + b);
+            }
+        }
+    }
+}
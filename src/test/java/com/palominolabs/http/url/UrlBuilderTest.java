@@ -12,6 +12,7 @@ import java.nio.charset.CharacterCodingException;
 import org.junit.jupiter.api.Test;
 
 import static com.palominolabs.http.url.UrlBuilder.forHost;
+import static com.palominolabs.http.url.UrlBuilder.fromString;
 import static com.palominolabs.http.url.UrlBuilder.fromUrl;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -170,6 +171,19 @@ public final class UrlBuilderTest {
         assertUrlEquals("http://[::1]", ub.toUrlString());
     }
 
+    @Test
+    public void testIPv6LiteralWithoutCompression() throws CharacterCodingException {
+        UrlBuilder ub = forHost("http", "[2001:DB8:0:0:8:800:200C:417A]");
+        assertUrlEquals("http://[2001:DB8:0:0:8:800:200C:417A]", ub.toUrlString());
+    }
+
+    @Test
+    public void testIPv6LiteralWithEmbeddedIPv4() throws CharacterCodingException {
+        UrlBuilder ub = forHost("http", "[::ffff:129.144.52.38]", 8080);
+        assertUrlEquals("http://[::ffff:129.144.52.38]:8080", ub.toUrlString());
+        assertEquals(ub.toUrlString().length(), ub.encodedLength());
+    }
+
     @Test
     public void testIPv6Literal() throws CharacterCodingException {
         UrlBuilder ub = forHost("http", "[2001:db8:85a3::8a2e:370:7334]");
@@ -320,18 +334,63 @@ public final class UrlBuilderTest {
     }
 
     @Test
-    public void testFromUrlMalformedQueryParamMultiValues() {
-        assertUrlBuilderRoundtrip("http://foo.com/foo?q1=v1=v2");
+    public void testFromUrlQueryParamMultiValues() {
+        // everything after the first '=' is the value
+        assertUrlBuilderRoundtrip("http://foo.com/foo?q1=v1=v2", "http://foo.com/foo?q1=v1%3Dv2");
     }
 
     @Test
-    public void testFromUrlMalformedQueryParamNoValue() {
+    public void testFromUrlQueryParamNoValue() {
         assertUrlBuilderRoundtrip("http://foo.com/foo?q1=v1&q2");
     }
 
     @Test
-    public void testFromUrlUnstructuredQueryWithEscapedChars() {
-        assertUrlBuilderRoundtrip("http://foo.com/foo?query==&%23");
+    public void testFromUrlQueryParamEmptyValue() {
+        assertUrlBuilderRoundtrip("http://foo.com/foo?q1=&q2");
+    }
+
+    @Test
+    public void testFromUrlQueryParamEmptyPairsDropped() {
+        assertUrlBuilderRoundtrip("http://foo.com/foo?&q1=v1&&q2=v2&", "http://foo.com/foo?q1=v1&q2=v2");
+    }
+
+    @Test
+    public void testFromUrlQueryParamsWithEscapedChars() {
+        assertUrlBuilderRoundtrip("http://foo.com/foo?query==&%23", "http://foo.com/foo?query=%3D&%23");
+    }
+
+    @Test
+    public void testFromUrlEmptyQuery() {
+        assertUrlBuilderRoundtrip("http://foo.com/foo?");
+    }
+
+    @Test
+    public void testFromUrlQueryParamsCanBeAppended() throws CharacterCodingException, MalformedURLException {
+        UrlBuilder ub = fromUrl(new URL("http://foo.com/foo?flag&a=b=c"))
+                .queryParam("d", "e");
+        assertUrlEquals("http://foo.com/foo?flag&a=b%3Dc&d=e", ub.toUrlString());
+    }
+
+    @Test
+    public void testQueryParamWithoutValue() throws CharacterCodingException {
+        UrlBuilder ub = forHost("http", "foo.com")
+                .queryParam("flag")
+                .queryParam("q", "")
+                .queryParam("f l&g");
+        assertUrlEquals("http://foo.com?flag&q=&f%20l%26g", ub.toUrlString());
+    }
+
+    @Test
+    public void testCantUseQueryParamWithoutValueAfterQuery() {
+        UrlBuilder ub = forHost("http", "foo.com").unstructuredQuery("q");
+
+        try {
+            ub.queryParam("flag");
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("Cannot call queryParam() when this already has an unstructured query specified",
+                    e.getMessage());
+        }
     }
 
     @Test
@@ -410,6 +469,34 @@ public final class UrlBuilderTest {
         assertUrlEquals("http://host?foo=bar", ub.toUrlString());
     }
 
+    @Test
+    public void testEncodedLength() throws CharacterCodingException {
+        UrlBuilder ub = forHost("http", "fo\u2603o.com", 8080)
+                .pathSegment("seg 1")
+                .matrixParam("m\u00e9", "v1")
+                .pathSegment("seg2")
+                .forceTrailingSlash()
+                .queryParam("q1", "v 1")
+                .queryParam("q\ud834\udd1e", "v2")
+                .fragment("frag ment");
+        assertEquals(ub.toUrlString().length(), ub.encodedLength());
+    }
+
+    @Test
+    public void testEncodedLengthQueryParamsWithoutValues() throws CharacterCodingException {
+        UrlBuilder ub = forHost("http", "foo.com")
+                .queryParam("flag")
+                .queryParam("q", "v")
+                .queryParam("f l\ud834\udd1e");
+        assertEquals(ub.toUrlString().length(), ub.encodedLength());
+    }
+
+    @Test
+    public void testEncodedLengthIpLiteralAndUnstructuredQuery() throws CharacterCodingException {
+        UrlBuilder ub = forHost("http", "[::1]").unstructuredQuery("q#+");
+        assertEquals(ub.toUrlString().length(), ub.encodedLength());
+    }
+
     private void assertUrlBuilderRoundtrip(String url) {
         assertUrlBuilderRoundtrip(url, url);
     }
@@ -421,6 +508,7 @@ public final class UrlBuilderTest {
     private void assertUrlBuilderRoundtrip(String origUrl, String finalUrl) {
         try {
             assertUrlEquals(finalUrl, fromUrl(new URL(origUrl)).toUrlString());
+            assertUrlEquals(finalUrl, fromString(origUrl).toUrlString());
         } catch (CharacterCodingException | MalformedURLException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,125 @@
+package com.palominolabs.http.url;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.CharacterCodingException;
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class UrlParserTest {
+
+    private final UrlParser parser = new UrlParser();
+
+    @Test
+    public void testParseEverything() throws CharacterCodingException {
+        String url =
+            "https://foo.bar.com:3333/foo/ba%20r;mtx1=val1;mtx2=val%202/seg%203;m2=v2?q1=v1&q2=v%202#zomg%20frag";
+        assertEquals(url, parser.parse(url).toUrlString());
+    }
+
+    @Test
+    public void testParserIsReusable() throws CharacterCodingException {
+        assertEquals("http://a.com/x%20y", parser.parse("http://a.com/x%20y").toUrlString());
+        assertEquals("http://b.com/z?q=%C3%A9", parser.parse("http://b.com/z?q=%C3%A9").toUrlString());
+    }
+
+    @Test
+    public void testSchemeLowerCased() throws CharacterCodingException {
+        assertEquals("http://foo.com", parser.parse("HTTP://foo.com").toUrlString());
+    }
+
+    @Test
+    public void testAnySchemeAccepted() throws CharacterCodingException {
+        assertEquals("ws+tls://foo.com/a", parser.parse("ws+tls://foo.com/a").toUrlString());
+    }
+
+    @Test
+    public void testUserInfoDropped() throws CharacterCodingException {
+        assertEquals("http://foo.com:80/a", parser.parse("http://user:pw@foo.com:80/a").toUrlString());
+    }
+
+    @Test
+    public void testSurroundingWhitespaceIgnored() throws CharacterCodingException {
+        assertEquals("http://foo.com/a", parser.parse("  http://foo.com/a\n").toUrlString());
+    }
+
+    @Test
+    public void testIpv6LiteralWithPort() throws CharacterCodingException {
+        assertEquals("http://[::1]:8080/a", parser.parse("http://[::1]:8080/a").toUrlString());
+    }
+
+    @Test
+    public void testQueryWithoutPath() throws CharacterCodingException {
+        assertEquals("http://foo.com?a=b", parser.parse("http://foo.com?a=b").toUrlString());
+    }
+
+    @Test
+    public void testEmptyQueryAndFragment() throws CharacterCodingException {
+        assertEquals("http://foo.com/a?#", parser.parse("http://foo.com/a?#").toUrlString());
+    }
+
+    @Test
+    public void testNonUtf8Charset() throws CharacterCodingException {
+        UrlParser isoParser = new UrlParser(ISO_8859_1.newDecoder());
+        assertEquals("http://foo.com/caf%C3%A9", isoParser.parse("http://foo.com/caf%E9").toUrlString());
+    }
+
+    @Test
+    public void testSameAsFromUrl() throws CharacterCodingException, MalformedURLException {
+        String[] urls = {
+            "http://foo.com/a;;", "http://foo.com/?&&", "http://foo.com/?a=b&", "http://foo.com/?=b",
+            "http://foo.com/?a=b==", "http://foo.com/a;=b;c=d=", "http://foo.com:/a", "http://foo.com//a//b/",
+            "http://a@b@foo.com/a", "http://foo.com/a?b#c?d#e", "http://foo.com/?a=b=c&flag&&d="
+        };
+        for (String url : urls) {
+            assertEquals(UrlBuilder.fromUrl(new URL(url)).toUrlString(), parser.parse(url).toUrlString(), url);
+        }
+    }
+
+    @Test
+    public void testQueryParamsWithoutValuesOrWithEquals() throws CharacterCodingException {
+        assertEquals("http://foo.com/a?flag&a=b%3Dc&e=",
+            parser.parse("http://foo.com/a?flag&&a=b=c&e=&").toUrlString());
+    }
+
+    @Test
+    public void testParseUrl() throws CharacterCodingException, MalformedURLException {
+        assertEquals("http://foo.com:8080/a%20b;m=1?q=r%3Ds&t#f",
+            parser.parse(new URL("http://foo.com:8080/a%20b;m=1?q=r=s&t#f")).toUrlString());
+    }
+
+    @Test
+    public void testMalformedMatrixParam() {
+        IllegalArgumentException e =
+            assertThrows(IllegalArgumentException.class, () -> parser.parse("http://foo.com/foo;m1=v1=v2"));
+        assertEquals("Malformed matrix param: <m1=v1=v2>", e.getMessage());
+
+        // as with fromUrl(), an empty segment name needs at least one matrix param after the ';'
+        IllegalArgumentException e2 =
+            assertThrows(IllegalArgumentException.class, () -> parser.parse("http://foo.com/;"));
+        assertEquals("Malformed matrix param: <>", e2.getMessage());
+    }
+
+    @Test
+    public void testNoAuthority() {
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("mailto:foo@bar.com"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("/foo/bar"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("1http://foo.com"));
+    }
+
+    @Test
+    public void testInvalidPort() {
+        IllegalArgumentException e =
+            assertThrows(IllegalArgumentException.class, () -> parser.parse("http://foo.com:80x/a"));
+        assertEquals("Invalid URL <http://foo.com:80x/a>: invalid port <80x>", e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("http://foo.com:99999999999"));
+    }
+
+    @Test
+    public void testUnterminatedIpLiteral() {
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("http://[::1/a"));
+    }
+}
@@ -0,0 +1,92 @@
+package com.palominolabs.http.url;
+
+import java.nio.charset.CharacterCodingException;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class UrlTemplateTest {
+
+    @Test
+    public void testExpand() throws CharacterCodingException {
+        UrlTemplate template = UrlTemplate.forHost("https", "api.example.com")
+            .pathSegment("v2")
+            .pathSegment("users")
+            .pathVariable("id")
+            .pathSegment("orders")
+            .queryVariable("page", "p")
+            .queryVariable("size", "s")
+            .build();
+
+        assertEquals(Arrays.asList("id", "p", "s"), template.getVariableNames());
+        assertEquals("https://api.example.com/v2/users/42/orders?page=1&size=50", template.expand("42", "1", "50"));
+        assertEquals("https://api.example.com/v2/users/a%2Fb%20c/orders?page=%26&size=%3D",
+            template.expand("a/b c", "&", "="));
+    }
+
+    @Test
+    public void testSameAsUrlBuilder() throws CharacterCodingException {
+        UrlTemplate template = UrlTemplate.forHost("http", "f\u00f6o.com", 8080)
+            .pathSegment("a b")
+            .matrixParam("m 1", "v;1")
+            .pathVariable("seg")
+            .matrixVariable("m2", "mtx")
+            .forceTrailingSlash()
+            .queryParam("flag")
+            .queryParam("q 1", "v+1")
+            .queryVariable("q\ud834\udd1e", "q")
+            .fragment("frag ment")
+            .build();
+
+        String[][] valueSets = {{"", "", ""}, {"s/;?", "=;", "&#+"}, {"\u00e9", "\ud834\udd1e", "\u2603"}};
+        for (String[] values : valueSets) {
+            String expected = UrlBuilder.forHost("http", "f\u00f6o.com", 8080)
+                .pathSegment("a b")
+                .matrixParam("m 1", "v;1")
+                .pathSegment(values[0])
+                .matrixParam("m2", values[1])
+                .forceTrailingSlash()
+                .queryParam("flag")
+                .queryParam("q 1", "v+1")
+                .queryParam("q\ud834\udd1e", values[2])
+                .fragment("frag ment")
+                .toUrlString();
+
+            assertEquals(expected, template.expand(values));
+            assertEquals(expected.length(), template.expandedLength(values));
+        }
+    }
+
+    @Test
+    public void testNoVariables() throws CharacterCodingException {
+        UrlTemplate template = UrlTemplate.forHost("http", "[::1]").matrixParam("m", "v").build();
+        assertEquals("http://[::1]/;m=v", template.expand());
+        assertEquals("http://[::1]/;m=v", template.toString());
+    }
+
+    @Test
+    public void testMatrixVariableOnRoot() throws CharacterCodingException {
+        UrlTemplate template = UrlTemplate.forHost("http", "foo.com").matrixVariable("m", "mtx").build();
+        assertEquals("http://foo.com/;m=v%3D1", template.expand("v=1"));
+    }
+
+    @Test
+    public void testToString() throws CharacterCodingException {
+        UrlTemplate template = UrlTemplate.forHost("http", "foo.com")
+            .pathSegment("users")
+            .pathVariable("id")
+            .queryVariable("q", "query")
+            .build();
+        assertEquals("http://foo.com/users/{id}?q={query}", template.toString());
+    }
+
+    @Test
+    public void testWrongNumberOfValues() throws CharacterCodingException {
+        UrlTemplate template = UrlTemplate.forHost("http", "foo.com").pathVariable("a").pathVariable("b").build();
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> template.expand("1"));
+        assertEquals("Expected 2 values for variables [a, b] but got 1", e.getMessage());
+    }
+}
@@ -0,0 +1,119 @@
+package com.palominolabs.http.url;
+
+import java.nio.charset.CharacterCodingException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public final class UrlTest {
+
+    @Test
+    public void testBuildRendersSameAsBuilder() throws CharacterCodingException {
+        UrlBuilder builder = UrlBuilder.forHost("https", "f\u00f6o.com", 3333)
+            .pathSegment("a b")
+            .matrixParam("m 1", "v;1")
+            .forceTrailingSlash()
+            .queryParam("flag")
+            .queryParam("q", "v&1")
+            .fragment("frag ment");
+        Url url = builder.build();
+
+        assertEquals(builder.toUrlString(), url.toString());
+        assertSame(url.toString(), url.toString());
+    }
+
+    @Test
+    public void testComponents() {
+        Url url = UrlBuilder.forHost("http", "foo.com")
+            .matrixParam("m", "v")
+            .pathSegment("seg")
+            .unstructuredQuery("q?")
+            .build();
+
+        assertEquals("http", url.getScheme());
+        assertEquals("foo.com", url.getHost());
+        assertNull(url.getPort());
+        assertEquals(2, url.getPathSegments().size());
+        assertEquals("", url.getPathSegments().get(0).getSegment());
+        assertEquals("m", url.getPathSegments().get(0).getMatrixParams().get(0).getName());
+        assertEquals("v", url.getPathSegments().get(0).getMatrixParams().get(0).getValue());
+        assertEquals("seg", url.getPathSegments().get(1).getSegment());
+        assertEquals(0, url.getQueryParams().size());
+        assertEquals("q?", url.getUnstructuredQuery());
+        assertNull(url.getFragment());
+        assertSame(url.getPathSegments(), url.getPathSegments());
+        assertEquals("http://foo.com/;m=v/seg?q?", url.toString());
+    }
+
+    @Test
+    public void testViewsAreUnmodifiable() {
+        Url url = UrlBuilder.forHost("http", "foo.com").pathSegment("a").queryParam("q", "v").build();
+
+        assertThrows(UnsupportedOperationException.class, () -> url.getPathSegments().clear());
+        assertThrows(UnsupportedOperationException.class, () -> url.getQueryParams().set(0, null));
+    }
+
+    @Test
+    public void testBuilderChangesDontAffectUrl() throws CharacterCodingException {
+        UrlBuilder builder = UrlBuilder.forHost("http", "foo.com").pathSegment("a");
+        Url url = builder.build();
+        builder.pathSegment("b").queryParam("q", "v");
+
+        assertEquals("http://foo.com/a", url.toString());
+        assertEquals("http://foo.com/a/b?q=v", builder.build().toString());
+    }
+
+    @Test
+    public void testWithPathSegmentAndQueryParam() {
+        Url base = UrlBuilder.forHost("http", "foo.com").pathSegment("a").queryParam("q", "1").build();
+
+        Url withSegment = base.withPathSegment("b c");
+        assertEquals("http://foo.com/a/b%20c?q=1", withSegment.toString());
+        assertEquals("http://foo.com/a?q=1", base.toString());
+
+        Url withParams = withSegment.withQueryParam("r", "2=3").withQueryParam("flag");
+        assertEquals("http://foo.com/a/b%20c?q=1&r=2%3D3&flag", withParams.toString());
+        assertSame(withSegment.getPathSegments().get(0), withParams.getPathSegments().get(0));
+        assertEquals(Arrays.asList("q=1", "r=2=3", "flag"), Arrays.asList(withParams.getQueryParams().get(0).toString(),
+            withParams.getQueryParams().get(1).toString(), withParams.getQueryParams().get(2).toString()));
+    }
+
+    @Test
+    public void testWithQueryParamAfterUnstructuredQuery() {
+        Url url = UrlBuilder.forHost("http", "foo.com").unstructuredQuery("q").build();
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> url.withQueryParam("a", "b"));
+        assertEquals("Cannot call withQueryParam() when this already has an unstructured query specified",
+            e.getMessage());
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        Url url = UrlBuilder.forHost("http", "foo.com", 80).pathSegment("a").queryParam("q", "v").build();
+        Url same = UrlBuilder.forHost("http", "foo.com", 80).pathSegment("a").build().withQueryParam("q", "v");
+
+        assertEquals(url, same);
+        assertEquals(url.hashCode(), same.hashCode());
+        assertNotEquals(url, url.withPathSegment("b"));
+        assertNotEquals(url, UrlBuilder.forHost("http", "foo.com", 80).pathSegment("a").queryParam("q").build());
+        assertNotEquals(url, UrlBuilder.forHost("http", "foo.com", 80).pathSegment("a").unstructuredQuery("q=v")
+            .build());
+
+        Map<Url, String> map = new HashMap<>();
+        map.put(url, "x");
+        assertEquals("x", map.get(same));
+    }
+
+    @Test
+    public void testToBuilder() throws CharacterCodingException {
+        Url url = UrlBuilder.forHost("http", "foo.com").pathSegment("a").matrixParam("m", "v").fragment("f").build();
+        assertEquals("http://foo.com/a;m=v/b#f", url.toBuilder().pathSegment("b").toUrlString());
+    }
+}
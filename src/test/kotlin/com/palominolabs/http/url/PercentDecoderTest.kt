@@ -3,12 +3,27 @@ package com.palominolabs.http.url
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.assertThrows
+import java.io.ByteArrayInputStream
+import java.io.Reader
+import java.io.StringReader
+import java.io.StringWriter
 import java.lang.Character.isHighSurrogate
 import java.lang.Character.isLowSurrogate
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.charset.Charset
+import java.nio.charset.CodingErrorAction.IGNORE
+import java.nio.charset.CodingErrorAction.REPLACE
+import java.nio.charset.CodingErrorAction.REPORT
+import java.nio.charset.MalformedInputException
+import java.nio.charset.StandardCharsets.ISO_8859_1
+import java.nio.charset.StandardCharsets.US_ASCII
 import java.nio.charset.StandardCharsets.UTF_8
 import java.util.Random
+import java.util.concurrent.ForkJoinPool
 import kotlin.streams.asSequence
 import kotlin.test.assertEquals
+import kotlin.test.assertSame
 import kotlin.test.fail
 
 class PercentDecoderTest {
@@ -24,6 +39,175 @@ class PercentDecoderTest {
         assertEquals("asdf", decoder.decode("asdf"))
     }
 
+    @Test
+    fun testDecodeWithoutPercentsReturnsSameString() {
+        val input = "asdf+qwer"
+        assertSame(input, decoder.decode(input))
+    }
+
+    @Test
+    fun testDecodeWithPrefixBeforePercent() {
+        assertEquals("asdf #", decoder.decode("asdf%20%23"))
+    }
+
+    @Test
+    fun testDecodeRunsBetweenPercents() {
+        assertEquals("a b c#d", decoder.decode("a%20b%20c%23d"))
+    }
+
+    @Test
+    fun testDecodeNonStringInput() {
+        assertEquals("a b c#d", decoder.decode(StringBuilder("a%20b%20c%23d")))
+    }
+
+    @Test
+    fun testDecodePlusAsSpace() {
+        val formDecoder = PercentDecoder(UTF_8.newDecoder(), true)
+        assertEquals("a b+c  d\u00e9 ", formDecoder.decode("a+b%2Bc++d%C3%A9+"))
+        assertEquals("a b c", formDecoder.decode(StringBuilder("a+b+c")))
+    }
+
+    @Test
+    fun testDecodePlusAsSpaceWithoutSpecialCharsReturnsSameString() {
+        val input = "asdf"
+        assertSame(input, PercentDecoder(UTF_8.newDecoder(), true).decode(input))
+    }
+
+    @Test
+    fun testDecodeFormEncoderOutput() {
+        val formDecoder = PercentDecoder(UTF_8.newDecoder(), true)
+        val input = "a b+c&d=e\u00e9\ud834\udd1e*-._~"
+        assertEquals(input, formDecoder.decode(UrlPercentEncoders.getFormEncoder().encode(input)))
+    }
+
+    @Test
+    fun testDecodeReaderToWriter() {
+        val input = "a%20b%E2%98%83c+".repeat(2000)
+        val writer = StringWriter()
+        decoder.decode(StringReader(input), writer)
+        assertEquals(decoder.decode(input), writer.toString())
+    }
+
+    @Test
+    fun testDecodeReaderSplitAcrossReads() {
+        // a one-byte buffer forces the 4-byte char to be decoded a piece at a time as well
+        val smallBufDecoder = PercentDecoder(UTF_8.newDecoder(), 1, 16)
+        val writer = StringWriter()
+        smallBufDecoder.decode(OneCharReader("a%F0%9D%84%9Eb%20"), writer)
+        assertEquals("a\ud834\udd1eb ", writer.toString())
+    }
+
+    @Test
+    fun testDecodeReaderIncompletePercentPair() {
+        val e = assertThrows<IllegalArgumentException> { decoder.decode(OneCharReader("ab%2"), StringWriter()) }
+        assertEquals("Could not percent decode input: incomplete %-pair at position 2", e.message)
+    }
+
+    @Test
+    fun testDecodeChannelToWriter() {
+        val writer = StringWriter()
+        decoder.decode(Channels.newChannel(ByteArrayInputStream("a%20b%E2%98%83c".toByteArray(US_ASCII))), writer)
+        assertEquals("a b\u2603c", writer.toString())
+    }
+
+    @Test
+    fun testDecodeLowercaseHex() {
+        assertEquals("\u00e9", decoder.decode("%c3%a9"))
+    }
+
+    @Test
+    fun testNonAsciiHexDigitsRejected() {
+        // Character.digit() accepts these fullwidth digits, but they are not valid in a %-triple
+        val e = assertThrows<IllegalArgumentException> { decoder.decode("%\uff11\uff12") }
+        assertEquals("Invalid %-tuple <%\uff11\uff12>", e.message)
+    }
+
+    @Test
+    fun testDecodeUtf8MalformedReported() {
+        // overlong 2-byte encoding of '/'
+        assertEquals(1, assertThrows<MalformedInputException> { reporting().decode("%C0%AF") }.inputLength)
+        // UTF-16 surrogate encoded as UTF-8
+        assertEquals(3, assertThrows<MalformedInputException> { reporting().decode("%ED%A0%80") }.inputLength)
+        // above U+10FFFF
+        assertEquals(1, assertThrows<MalformedInputException> { reporting().decode("%F4%90%80%80") }.inputLength)
+        // truncated 4-byte sequence at the end of a run
+        assertEquals(3, assertThrows<MalformedInputException> { reporting().decode("%F0%9D%84a") }.inputLength)
+        // bad third byte
+        assertEquals(2, assertThrows<MalformedInputException> { reporting().decode("%E2%98a") }.inputLength)
+    }
+
+    @Test
+    fun testDecodeUtf8MalformedReplaced() {
+        val replacing = PercentDecoder(UTF_8.newDecoder().onMalformedInput(REPLACE))
+        assertEquals("\ufffd\ufffd/", replacing.decode("%C0%AF%2F"))
+        assertEquals("\ufffda\ufffd", replacing.decode("%F0%9D%84a%80"))
+        assertEquals("\ufffd\ufffd", replacing.decode("%E2%98%E2%98"))
+    }
+
+    @Test
+    fun testDecodeUtf8MalformedIgnored() {
+        val ignoring = PercentDecoder(UTF_8.newDecoder().onMalformedInput(IGNORE))
+        assertEquals("a\u2603", ignoring.decode("a%ED%A0%80%E2%98%83%FF"))
+    }
+
+    @Test
+    fun testDecodeBytes() {
+        val bytes = "xxa%20b%E2%98%83c".toByteArray(US_ASCII)
+        assertEquals("a b\u2603c", decoder.decode(bytes, 2, bytes.size - 2))
+    }
+
+    @Test
+    fun testDecodeBytesRawUtf8() {
+        // raw and %-encoded bytes of the same char can be mixed
+        val bytes = "caf\u00e9 %E2".toByteArray(UTF_8) + byteArrayOf(0x98.toByte()) + "%83".toByteArray(US_ASCII)
+        assertEquals("caf\u00e9 \u2603", decoder.decode(bytes, 0, bytes.size))
+    }
+
+    @Test
+    fun testDecodeDirectByteBuffer() {
+        val bytes = "a%20b+c".toByteArray(US_ASCII)
+        val buf = ByteBuffer.allocateDirect(bytes.size + 1)
+        buf.put(bytes).put('x'.code.toByte()).flip().limit(bytes.size)
+
+        assertEquals("a b c", PercentDecoder(UTF_8.newDecoder(), true).decode(buf))
+        assertEquals(bytes.size, buf.position())
+    }
+
+    @Test
+    fun testDecodeByteBufferToStringBuilder() {
+        val buf = StringBuilder("x=")
+        decoder.decodeTo(ByteBuffer.wrap("a%20b".toByteArray(US_ASCII)), buf)
+        assertEquals("x=a b", buf.toString())
+    }
+
+    @Test
+    fun testDecodeBytesInvalid() {
+        val buf = ByteBuffer.wrap("a%2".toByteArray(US_ASCII))
+        val e = assertThrows<IllegalArgumentException> { decoder.decode(buf) }
+        assertEquals("Could not percent decode input: incomplete %-pair at position 1", e.message)
+        assertEquals(0, buf.position())
+
+        val e2 = assertThrows<IllegalArgumentException> { decoder.decode("%2z".toByteArray(US_ASCII), 0, 3) }
+        assertEquals("Invalid %-tuple <%2z>", e2.message)
+    }
+
+    @Test
+    fun testDecodeSingleByteCharset() {
+        assertEquals("caf\u00e9 \u00ff", PercentDecoder(ISO_8859_1.newDecoder()).decode("caf%E9%20%FF"))
+        assertEquals("\u20ac", PercentDecoder(Charset.forName("windows-1252").newDecoder()).decode("%80"))
+    }
+
+    @Test
+    fun testDecodeSingleByteCharsetMalformed() {
+        // bytes above 0x7F aren't US-ASCII
+        assertEquals("a\ufffdb", PercentDecoder(US_ASCII.newDecoder().onMalformedInput(REPLACE)).decode("a%80b"))
+        assertEquals("ab", PercentDecoder(US_ASCII.newDecoder().onMalformedInput(IGNORE)).decode("a%80b"))
+        val e = assertThrows<MalformedInputException> {
+            PercentDecoder(US_ASCII.newDecoder().onMalformedInput(REPORT)).decode("a%80b")
+        }
+        assertEquals(1, e.inputLength)
+    }
+
     @Test
     fun testDecodeSingleByte() {
         assertEquals("#", decoder.decode("%23"))
@@ -47,6 +231,123 @@ class PercentDecoderTest {
         assertEquals("Invalid %-tuple <%xz>", e.message)
     }
 
+    @Test
+    fun testDecodeLenientPassesInvalidSequencesThrough() {
+        assertEquals("%zz a%", decoder.decodeLenient("%zz%20a%"))
+        assertEquals("%2", decoder.decodeLenient("%2"))
+        assertEquals("%A", decoder.decodeLenient("%%41"))
+        assertEquals("%4g", decoder.decodeLenient("%4g"))
+    }
+
+    @Test
+    fun testDecodeLenientValidInputSameAsDecode() {
+        assertEquals(decoder.decode("a%20b%E2%82%AC"), decoder.decodeLenient("a%20b%E2%82%AC"))
+        assertSame("abc", decoder.decodeLenient("abc"))
+    }
+
+    @Test
+    fun testDecodeLenientEndsRunOfEncodedBytes() {
+        // the literal '%' splits the UTF-8 sequence, so both halves are malformed
+        val replacing = PercentDecoder(UTF_8.newDecoder().onMalformedInput(REPLACE))
+        assertEquals("\ufffd%zz\ufffd", replacing.decodeLenient("%E2%zz%82"))
+    }
+
+    @Test
+    fun testDecodeLenientReportsPositions() {
+        val positions = mutableListOf<Int>()
+        assertEquals("%zz a%x%", decoder.decodeLenient("%zz%20a%x%") { positions.add(it) })
+        assertEquals(listOf(0, 7, 9), positions)
+    }
+
+    @Test
+    fun testValidateValid() {
+        val safeChars = UrlPercentEncoders.getPathEncoder().safeChars
+        assertEquals(-1, decoder.validate("", safeChars))
+        assertEquals(-1, decoder.validate("ab%20c%E2%82%ACd", safeChars))
+    }
+
+    @Test
+    fun testValidateDisallowedChar() {
+        val safeChars = UrlPercentEncoders.getPathEncoder().safeChars
+        assertEquals(3, decoder.validate("abc d", safeChars))
+        assertEquals(1, decoder.validate("a?b", safeChars))
+        assertEquals(3, decoder.validate("%20\u00e9", safeChars))
+    }
+
+    @Test
+    fun testValidateInvalidPercentSequence() {
+        val safeChars = UrlPercentEncoders.getPathEncoder().safeChars
+        assertEquals(2, decoder.validate("ab%zz", safeChars))
+        assertEquals(2, decoder.validate("ab%2", safeChars))
+        assertEquals(0, decoder.validate("%", safeChars))
+    }
+
+    @Test
+    fun testValidateInvalidCharsetBytes() {
+        val safeChars = UrlPercentEncoders.getPathEncoder().safeChars
+        // 0xE2 0x82 is incomplete, so the sequence is invalid from the 0xE2
+        assertEquals(4, decoder.validate("a%41%E2%82b", safeChars))
+        // 0xED 0xA0 0x80 would be a surrogate
+        assertEquals(0, decoder.validate("%ED%A0%80", safeChars))
+        // the bad bytes come before the bad char
+        assertEquals(0, decoder.validate("%FF ", safeChars))
+        assertEquals(-1, PercentDecoder(ISO_8859_1.newDecoder()).validate("%FF", safeChars))
+        assertEquals(3, PercentDecoder(US_ASCII.newDecoder()).validate("%41%80", safeChars))
+        assertEquals(3, PercentDecoder(Charset.forName("Shift_JIS").newDecoder()).validate("%41%82", safeChars))
+    }
+
+    @Test
+    fun testValidateIgnoresDecoderErrorActions() {
+        val replacing = PercentDecoder(UTF_8.newDecoder().onMalformedInput(REPLACE))
+        assertEquals(0, replacing.validate("%FF", UrlPercentEncoders.getPathEncoder().safeChars))
+    }
+
+    @Test
+    fun testValidatePlusAsSpace() {
+        val safeChars = UrlPercentEncoders.getFormEncoder().safeChars
+        assertEquals(1, decoder.validate("a+b", safeChars))
+        assertEquals(-1, PercentDecoder(UTF_8.newDecoder(), true).validate("a+b", safeChars))
+    }
+
+    @Test
+    fun testValidateRange() {
+        val safeChars = UrlPercentEncoders.getPathEncoder().safeChars
+        assertEquals(-1, decoder.validate("GET /a%20b HTTP/1.1", 5, 10, safeChars))
+        assertEquals(6, decoder.validate("GET /a%2zb HTTP/1.1", 5, 10, safeChars))
+        assertEquals(4, decoder.validate("GET /a%20b HTTP/1.1", 4, 10, safeChars))
+        assertThrows<IndexOutOfBoundsException> { decoder.validate("abc", 2, 4, safeChars) }
+    }
+
+    @Test
+    fun testDecodeParallel() {
+        val input = "a%20b%C3%A9%F0%9D%84%9E+%E2%98%83".repeat(100)
+        val pool = ForkJoinPool(4)
+        try {
+            // chunks of 4 chars would split %-triples and UTF-8 sequences if split points weren't moved
+            assertEquals(decoder.decode(input), decoder.decodeParallel(input, pool, 0, 4))
+            val formDecoder = PercentDecoder(UTF_8.newDecoder(), true)
+            assertEquals(formDecoder.decode(input), formDecoder.decodeParallel(input, pool, 0, 4))
+            val sjisDecoder = PercentDecoder(Charset.forName("Shift_JIS").newDecoder())
+            val sjisInput = "a%82%A0b".repeat(100)
+            assertEquals(sjisDecoder.decode(sjisInput), sjisDecoder.decodeParallel(sjisInput, pool, 0, 4))
+            assertEquals(decoder.decode(input), decoder.decodeParallel(input, pool))
+        } finally {
+            pool.shutdown()
+        }
+    }
+
+    @Test
+    fun testDecodeParallelInvalidSameExceptionAsDecode() {
+        val input = "a%20b".repeat(20) + "%zz" + "a%20b".repeat(20)
+        val pool = ForkJoinPool(4)
+        try {
+            val e = assertThrows<IllegalArgumentException> { decoder.decodeParallel(input, pool, 0, 4) }
+            assertEquals("Invalid %-tuple <%zz>", e.message)
+        } finally {
+            pool.shutdown()
+        }
+    }
+
     @Test
     fun testRandomStrings() {
         val encoder = UrlPercentEncoders.getUnstructuredQueryEncoder()
@@ -129,5 +430,24 @@ class PercentDecoderTest {
  */
 private fun toHex(bytes: ByteArray): List<String> = bytes.map { Integer.toHexString(it.toInt().and(0xFF)) }
 
+private fun reporting() = PercentDecoder(UTF_8.newDecoder().onMalformedInput(REPORT))
+
+/**
+ * Returns one char per read, to exercise handling of input split across reads
+ */
+private class OneCharReader(private val input: String) : Reader() {
+    private var position = 0
+
+    override fun read(cbuf: CharArray, off: Int, len: Int): Int {
+        if (position == input.length) {
+            return -1
+        }
+        cbuf[off] = input[position++]
+        return 1
+    }
+
+    override fun close() {}
+}
+
 private const val CODE_POINT_IN_SUPPLEMENTARY = 2
 private const val CODE_POINT_IN_BMP = 1